@@ -0,0 +1,53 @@
+package com.jeffery.garmin_sleep.benchmark;
+
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.service.GarminNightParser;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上傳 CSV 的解析迴圈：與 SleepIngestService 相同的 CSVParser 設定，每列 data 欄位交給 GarminNightParser。
+ * 不含資料庫寫入與 worker pool 排程，量的是單一執行緒的解析成本。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CsvIngestParseBenchmark {
+
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build();
+
+    @Param({"1", "100", "10000"})
+    public int nights;
+
+    private final GarminNightParser parser = new GarminNightParser();
+    private byte[] csv;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        csv = new GarminExportGenerator(42).csvBytes(nights);
+    }
+
+    @Benchmark
+    public long parseCsv(Blackhole blackhole) throws IOException {
+        long rows = 0;
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8);
+             CSVParser csvParser = new CSVParser(reader, CSV_FORMAT)) {
+            for (CSVRecord record : csvParser) {
+                ParsedNight night = parser.parse(record.get("data"));
+                rows += night.rowCount();
+                blackhole.consume(night);
+            }
+        }
+        return rows;
+    }
+}
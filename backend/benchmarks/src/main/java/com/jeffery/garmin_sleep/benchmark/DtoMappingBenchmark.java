@@ -0,0 +1,85 @@
+package com.jeffery.garmin_sleep.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jeffery.garmin_sleep.dto.RespirationDTO;
+import com.jeffery.garmin_sleep.dto.SleepStageSegmentDTO;
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import com.jeffery.garmin_sleep.service.GarminNightParser;
+import com.jeffery.garmin_sleep.service.RespirationCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getStagesByDate / getRespirationByDate 在查詢之後的成本：
+ * 階段片段逐列建立 DTO（對應 JPQL constructor expression）、呼吸率 blob 解碼後轉成 DTO，
+ * 以及 Jackson 序列化成回應內容。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DtoMappingBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ParsedNight night;
+    private byte[] respirationBlob;
+    private LocalDate date;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        date = GarminExportGenerator.FIRST_NIGHT;
+        night = new GarminNightParser().parse(new GarminExportGenerator(42).nightJson(date));
+        respirationBlob = RespirationCodec.encode(night.getRespirationOffsets(), night.getRespirationRates());
+    }
+
+    @Benchmark
+    public List<SleepStageSegmentDTO> mapStages() {
+        return stageDtos();
+    }
+
+    @Benchmark
+    public List<RespirationDTO> mapRespiration() {
+        return respirationDtos();
+    }
+
+    @Benchmark
+    public byte[] stagesResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(stageDtos());
+    }
+
+    @Benchmark
+    public byte[] respirationResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(respirationDtos());
+    }
+
+    private List<SleepStageSegmentDTO> stageDtos() {
+        String summaryId = night.getSummary().getSummaryId();
+        List<SleepStageSegmentDTO> dtos = new ArrayList<>(night.stageCount());
+        for (int i = 0; i < night.stageCount(); i++) {
+            long start = night.getStageStarts()[i];
+            long end = night.getStageEnds()[i];
+            dtos.add(new SleepStageSegmentDTO(night.getStageTypes()[i], start, end, (int) (end - start), summaryId));
+        }
+        return dtos;
+    }
+
+    private List<RespirationDTO> respirationDtos() {
+        RespirationSeries series = RespirationCodec.decode(night.getSummary().getSummaryId(), date, respirationBlob);
+        String day = series.getDate().toString();
+        List<RespirationDTO> dtos = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            dtos.add(new RespirationDTO(series.getOffsets()[i], series.getRates()[i], series.getSummaryId(), day));
+        }
+        return dtos;
+    }
+}
@@ -0,0 +1,129 @@
+package com.jeffery.garmin_sleep.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * 產生與 Garmin 匯出格式相同的合成 CSV（id,data 兩欄，data 為一晚的 JSON）。
+ * 每晚約 8 小時、5~40 分鐘長的階段片段，以及每分鐘一筆、共 480 筆的呼吸率樣本；
+ * 相同 seed 產生相同內容，benchmark 之間的結果因此可以比較。
+ *
+ * <pre>java -cp benchmarks.jar com.jeffery.garmin_sleep.benchmark.GarminExportGenerator 400 nights.csv [seed]</pre>
+ */
+public final class GarminExportGenerator {
+
+    public static final LocalDate FIRST_NIGHT = LocalDate.of(2025, 1, 1);
+
+    private static final String[] STAGE_CHOICES = {"light", "deep", "rem", "awake", "light"};
+    private static final int SLEEP_SECONDS = 8 * 3600;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Random random;
+
+    public GarminExportGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: GarminExportGenerator <nights> <output.csv> [seed]");
+            System.exit(1);
+        }
+        int nights = Integer.parseInt(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        try (Writer out = Files.newBufferedWriter(Path.of(args[1]), StandardCharsets.UTF_8)) {
+            new GarminExportGenerator(seed).writeCsv(nights, out);
+        }
+    }
+
+    /** 整份 CSV 的 UTF-8 bytes，供 benchmark 在記憶體中重複解析。 */
+    public byte[] csvBytes(int nights) {
+        return csvBytes(FIRST_NIGHT, nights);
+    }
+
+    public byte[] csvBytes(LocalDate firstNight, int nights) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(nights * 11_000);
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            writeCsv(firstNight, nights, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public void writeCsv(int nights, Writer out) throws IOException {
+        writeCsv(FIRST_NIGHT, nights, out);
+    }
+
+    /** 從 firstNight 起連續 nights 晚。 */
+    public void writeCsv(LocalDate firstNight, int nights, Writer out) throws IOException {
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT);
+        printer.printRecord("id", "data");
+        for (int i = 0; i < nights; i++) {
+            printer.printRecord(i, nightJson(firstNight.plusDays(i)));
+        }
+        printer.flush();
+    }
+
+    /** 一晚的 data 欄位 JSON。 */
+    public String nightJson(LocalDate date) throws IOException {
+        // 前一天 23:00 入睡
+        long base = date.atStartOfDay().toEpochSecond(ZoneOffset.UTC) - 3600;
+        Map<String, List<long[]>> stages = new LinkedHashMap<>();
+        for (long t = base; t < base + SLEEP_SECONDS; ) {
+            String stage = STAGE_CHOICES[random.nextInt(STAGE_CHOICES.length)];
+            long duration = (5 + random.nextInt(36)) * 60L;
+            stages.computeIfAbsent(stage, s -> new ArrayList<>()).add(new long[]{t, t + duration});
+            t += duration;
+        }
+
+        StringWriter json = new StringWriter(11_000);
+        try (JsonGenerator g = jsonFactory.createGenerator(json)) {
+            g.writeStartObject();
+            g.writeStringField("summaryId", "x-" + date);
+            g.writeStringField("calendarDate", date.toString());
+            g.writeNumberField("durationInSeconds", SLEEP_SECONDS);
+            g.writeNumberField("deepSleepDurationInSeconds", 5000);
+            g.writeNumberField("lightSleepDurationInSeconds", 15000);
+            g.writeNumberField("remSleepInSeconds", 6000);
+            g.writeNumberField("awakeDurationInSeconds", 900);
+
+            g.writeObjectFieldStart("overallSleepScore");
+            g.writeNumberField("value", 50 + random.nextInt(46));
+            g.writeStringField("qualifierKey", "GOOD");
+            g.writeEndObject();
+
+            g.writeObjectFieldStart("sleepLevelsMap");
+            for (Map.Entry<String, List<long[]>> e : stages.entrySet()) {
+                g.writeArrayFieldStart(e.getKey());
+                for (long[] segment : e.getValue()) {
+                    g.writeStartObject();
+                    g.writeNumberField("startTimeInSeconds", segment[0]);
+                    g.writeNumberField("endTimeInSeconds", segment[1]);
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+            }
+            g.writeEndObject();
+
+            g.writeObjectFieldStart("timeOffsetSleepRespiration");
+            for (int offset = -3600; offset < 7 * 3600; offset += 60) {
+                g.writeFieldName(Integer.toString(offset));
+                g.writeNumber(Math.round((12 + random.nextDouble() * 6) * 100) / 100.0);
+            }
+            g.writeEndObject();
+            g.writeEndObject();
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package com.jeffery.garmin_sleep.benchmark;
+
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+import com.jeffery.garmin_sleep.service.GarminNightParser;
+import com.jeffery.garmin_sleep.service.NightStatsCalculator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 匯入時每晚統計值的計算成本（階段片段加上 480 筆呼吸率樣本），也是 prompt 補算統計值的路徑。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NightStatsBenchmark {
+
+    private ParsedNight night;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        night = new GarminNightParser().parse(new GarminExportGenerator(42).nightJson(GarminExportGenerator.FIRST_NIGHT));
+    }
+
+    @Benchmark
+    public SleepNightStats computeNightStats() {
+        return NightStatsCalculator.compute(night.getSummary().getSummaryId(), night.getStageTypes(),
+                night.getStageStarts(), night.getStageEnds(), night.getRespirationRates());
+    }
+}
@@ -0,0 +1,60 @@
+package com.jeffery.garmin_sleep.benchmark;
+
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+import com.jeffery.garmin_sleep.service.GarminNightParser;
+import com.jeffery.garmin_sleep.service.NightStatsCalculator;
+import com.jeffery.garmin_sleep.service.SleepContextBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chatbot prompt 組裝：以合成資料的階段片段與 480 筆呼吸率樣本算出統計值，
+ * 量 SleepContextBuilder 把 window 內各晚壓成統計行與 hypnogram、再依 token 預算裁切的成本。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptBuildBenchmark {
+
+    private static final String QUESTION = "我昨天睡得怎麼樣？為什麼白天還是很累？";
+
+    @Param({"1", "7", "30"})
+    public int windowNights;
+
+    @Param({"1200"})
+    public int tokenBudget;
+
+    private List<NightContext> nights;
+    private LocalDate date;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        GarminExportGenerator generator = new GarminExportGenerator(42);
+        GarminNightParser parser = new GarminNightParser();
+        nights = new ArrayList<>(windowNights);
+        for (int i = 0; i < windowNights; i++) {
+            ParsedNight night = parser.parse(generator.nightJson(GarminExportGenerator.FIRST_NIGHT.plusDays(i)));
+            SleepNightStats stats = NightStatsCalculator.compute(night.getSummary().getSummaryId(),
+                    night.getStageTypes(), night.getStageStarts(), night.getStageEnds(), night.getRespirationRates());
+            nights.add(new NightContext(night.getSummary(), stats,
+                    night.getStageTypes(), night.getStageStarts(), night.getStageEnds(), null,
+                    night.getSummary().getContentHash()));
+        }
+        date = GarminExportGenerator.FIRST_NIGHT.plusDays(windowNights - 1L);
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return SleepContextBuilder.buildPrompt(QUESTION, date, nights, tokenBudget);
+    }
+}
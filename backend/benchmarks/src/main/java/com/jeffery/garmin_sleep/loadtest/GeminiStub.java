@@ -0,0 +1,97 @@
+package com.jeffery.garmin_sleep.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本機的假 Gemini API：固定延遲（加上 0~jitter 的隨機延遲）後回傳一段固定格式的回答。
+ * URL 帶 alt=sse 時改以 text/event-stream 分成 chunks 段送出，延遲平均分攤在各段之間。
+ * 只用 JDK 內建的 HttpServer，不需要外部程序。
+ */
+public final class GeminiStub implements AutoCloseable {
+
+    private static final String[] WORDS = {"昨晚", "深層睡眠", "比例", "略低，", "建議", "提早", "入睡。"};
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Duration latency;
+    private final Duration jitter;
+    private final int chunks;
+    private final AtomicLong calls = new AtomicLong();
+
+    public GeminiStub(Duration latency, Duration jitter, int chunks) throws IOException {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.chunks = Math.max(1, chunks);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/gen", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** 對應 GEMINI_URL；串流版本（GEMINI_STREAM_URL）再加上 ?alt=sse。 */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/gen";
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            long call = calls.incrementAndGet();
+            long delayMillis = latency.toMillis()
+                    + (jitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1));
+            String query = exchange.getRequestURI().getQuery();
+
+            if (query != null && query.contains("alt=sse")) {
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                for (int i = 0; i < chunks; i++) {
+                    sleep(delayMillis / chunks);
+                    String text = WORDS[i % WORDS.length] + (i == chunks - 1 ? "（" + call + "）" : "");
+                    out.write(("data: " + answerJson(text) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                return;
+            }
+
+            sleep(delayMillis);
+            byte[] body = answerJson(String.join("", WORDS) + "（" + call + "）").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private static String answerJson(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
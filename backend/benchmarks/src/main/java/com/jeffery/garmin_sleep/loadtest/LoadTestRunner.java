@@ -0,0 +1,447 @@
+package com.jeffery.garmin_sleep.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jeffery.garmin_sleep.GarminSleepApplication;
+import com.jeffery.garmin_sleep.benchmark.GarminExportGenerator;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可重現的負載測試：啟動內嵌 PostgreSQL 與 {@link GeminiStub}，在同一個 JVM 內啟動整個後端，
+ * 先上傳 nights 晚的合成資料（量測匯入速度），再由 users 個虛擬使用者依 mix 的權重
+ * 隨機呼叫各 API（closed loop，每個請求結束後等 think 再送下一個），暖機後量測 duration。
+ * 結果（各操作的吞吐量與 p50/p99/p999 延遲、Hikari pool 飽和程度、Gemini 呼叫數）
+ * 寫成 JSON 報告，不同版本的報告可以直接 diff。相同 seed 產生相同的資料與請求順序。
+ *
+ * <pre>java -cp benchmarks.jar com.jeffery.garmin_sleep.loadtest.LoadTestRunner --users=50 --nights=10000</pre>
+ *
+ * 其他參數見 {@link Options}；--app.&lt;property&gt;=value 直接傳給後端，例如
+ * --app.spring.datasource.hikari.maximum-pool-size=20。
+ */
+public final class LoadTestRunner {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String BOUNDARY = "loadtest-boundary";
+
+    private final Options options;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final Map<String, OperationStats> stats = new LinkedHashMap<>();
+    private final String[] weightedOperations;
+    private String baseUrl;
+
+    private LoadTestRunner(Options options) {
+        this.options = options;
+        List<String> weighted = new ArrayList<>();
+        options.mix.forEach((operation, weight) -> {
+            stats.put(operation, new OperationStats(operation));
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        this.weightedOperations = weighted.toArray(String[]::new);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Map<String, Object> report = new LoadTestRunner(options).run();
+        Path reportPath = Path.of(options.report);
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(reportPath.toFile(), report);
+        System.out.println("報告已寫入 " + reportPath.toAbsolutePath());
+        // 後端的非 daemon 執行緒（上傳 worker 等）已隨 context 關閉，但 HttpClient 等仍可能延後結束
+        System.exit(0);
+    }
+
+    private Map<String, Object> run() throws Exception {
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.builder()
+                .setServerConfig("max_connections", "300")
+                .start();
+             GeminiStub gemini = new GeminiStub(options.geminiLatency, options.geminiJitter, options.geminiChunks);
+             ConfigurableApplicationContext app = startApplication(postgres, gemini)) {
+
+            baseUrl = "http://127.0.0.1:" + ((WebServerApplicationContext) app).getWebServer().getPort();
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("startedAt", Instant.now().toString());
+            report.put("options", options.toReport());
+            Map<String, Object> environment = new LinkedHashMap<>();
+            environment.put("java", System.getProperty("java.version"));
+            environment.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+            environment.put("maxHeapMb", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+            report.put("environment", environment);
+
+            report.put("seedUpload", seed());
+
+            MeterRegistry meterRegistry = app.getBean(MeterRegistry.class);
+            try (PoolSampler pool = new PoolSampler(
+                    // 後端以 DelegatingDataSource 包住 Hikari 以計算 SQL 數
+                    app.getBean(DataSource.class).unwrap(HikariDataSource.class), options.poolSamplePeriodMillis)) {
+                System.out.printf("暖機 %s，%d 個虛擬使用者%n", options.warmup, options.users);
+                runUsers(options.warmup, 0);
+                stats.values().forEach(OperationStats::reset);
+                pool.reset();
+                AcquireSnapshot acquireBefore = AcquireSnapshot.of(meterRegistry);
+                long geminiBefore = gemini.calls();
+
+                System.out.printf("量測 %s%n", options.duration);
+                long startedAt = System.nanoTime();
+                runUsers(options.duration, 1);
+                double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+                report.put("workload", workloadReport(seconds));
+                Map<String, Object> poolReport = pool.report();
+                poolReport.putAll(AcquireSnapshot.of(meterRegistry).since(acquireBefore));
+                report.put("connectionPool", poolReport);
+                report.put("gemini", Map.of("upstreamCalls", gemini.calls() - geminiBefore));
+            }
+            printSummary(report);
+            return report;
+        }
+    }
+
+    private ConfigurableApplicationContext startApplication(EmbeddedPostgres postgres, GeminiStub gemini) {
+        // 以命令列參數傳入：application.properties 的 GEMINI_MODEL=${GEMINI_MODEL} 等只能由優先順序更高的來源覆寫
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("DB_URL", postgres.getJdbcUrl("postgres", "postgres"));
+        properties.put("DB_USERNAME", "postgres");
+        properties.put("DB_PASSWORD", "postgres");
+        properties.put("GEMINI_API_KEY", "loadtest");
+        properties.put("GEMINI_MODEL", "stub");
+        properties.put("GEMINI_URL", gemini.url());
+        properties.put("GEMINI_STREAM_URL", gemini.url() + "?alt=sse");
+        properties.put("server.port", "0");
+        // 10,000 晚的合成 CSV 超過後端預設的 100MB 上傳上限
+        properties.put("spring.servlet.multipart.max-file-size", "2GB");
+        properties.put("spring.servlet.multipart.max-request-size", "2GB");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.org.springframework.web", "WARN");
+        // Gemini 同時請求數滿載時每次 503 都會印出 stack trace
+        properties.put("logging.level.com.github.benmanes.caffeine", "ERROR");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.request-summary.sample-rate", "0");
+        properties.put("spring.main.banner-mode", "off");
+        properties.putAll(options.appProperties);
+
+        System.out.printf("啟動後端（PostgreSQL port %d，Gemini stub %s）%n", postgres.getPort(), gemini.url());
+        return new SpringApplicationBuilder(GarminSleepApplication.class)
+                .run(properties.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new));
+    }
+
+    /** 上傳 nights 晚並等待匯入完成，回傳匯入耗時與速度。 */
+    private Map<String, Object> seed() throws IOException, InterruptedException {
+        byte[] csv = new GarminExportGenerator(options.seed).csvBytes(options.nights);
+        System.out.printf("上傳 %d 晚（%.1f MB）%n", options.nights, csv.length / 1e6);
+        long startedAt = System.nanoTime();
+        HttpResponse<String> accepted = upload(csv, options.nights + "-nights.csv");
+        if (accepted.statusCode() != 202) {
+            throw new IllegalStateException("上傳失敗：" + accepted.statusCode() + " " + accepted.body());
+        }
+        String jobId = MAPPER.readTree(accepted.body()).path("jobId").asText();
+
+        JsonNode job;
+        do {
+            Thread.sleep(200);
+            job = MAPPER.readTree(send(HttpRequest.newBuilder(uri("/api/upload-jobs/" + jobId + "?includeNights=false"))
+                    .GET().build()).body());
+        } while (!"COMPLETED".equals(job.path("status").asText()) && !"FAILED".equals(job.path("status").asText()));
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("nights", options.nights);
+        result.put("csvBytes", csv.length);
+        result.put("status", job.path("status").asText());
+        result.put("nightsWritten", job.path("nightsWritten").asLong());
+        result.put("nightsFailed", job.path("nightsFailed").asLong());
+        result.put("rowsWritten", job.path("rowsWritten").asLong());
+        result.put("seconds", OperationStats.round(seconds));
+        result.put("nightsPerSecond", OperationStats.round(options.nights / seconds));
+        result.put("rowsPerSecond", OperationStats.round(job.path("rowsWritten").asLong() / seconds));
+        System.out.printf("匯入完成：%s，%.1f 秒%n", job.path("status").asText(), seconds);
+        return result;
+    }
+
+    private void runUsers(Duration duration, int phase) throws InterruptedException {
+        if (duration.isZero()) {
+            return;
+        }
+        long deadline = System.nanoTime() + duration.toNanos();
+        ExecutorService users = Executors.newFixedThreadPool(options.users);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < options.users; i++) {
+            // 暖機與量測使用不同但固定的亂數序列
+            Random random = new Random(options.seed * 1_000_003L + phase * 10_007L + i);
+            futures.add(users.submit(() -> userLoop(random, deadline)));
+        }
+        users.shutdown();
+        users.awaitTermination(duration.toMillis() + 120_000, TimeUnit.MILLISECONDS);
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void userLoop(Random random, long deadline) {
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            String operation = weightedOperations[random.nextInt(weightedOperations.length)];
+            HttpRequest request = request(operation, random);
+            long startedAt = System.nanoTime();
+            int status;
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                status = response.statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            stats.get(operation).record(System.nanoTime() - startedAt, status);
+            if (!options.think.isZero()) {
+                try {
+                    Thread.sleep(options.think.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private HttpRequest request(String operation, Random random) {
+        LocalDate date = GarminExportGenerator.FIRST_NIGHT.plusDays(random.nextInt(options.nights));
+        return switch (operation) {
+            case "summary-page" -> get("/api/sleep-summary?startDate=" + date + "&endDate=" + date.plusDays(30));
+            case "night-summary" -> get("/api/sleep-summary/" + date);
+            case "night-stages" -> get("/api/sleep-stages/" + date);
+            case "night-respiration" -> get("/api/sleep-respiration/" + date);
+            case "night-stats" -> get("/api/sleep-stats/" + date);
+            case "range" -> get("/api/sleep-range?startDate=" + date + "&endDate=" + date.plusDays(90) + "&bucket=week");
+            case "chatbot", "chatbot-stream" -> {
+                // 問題池有限，重複的 (日期, 問題) 會命中後端的回答快取
+                String body = "{\"date\":\"" + date + "\",\"question\":\"第 " + random.nextInt(options.questions)
+                        + " 個問題：我睡得怎麼樣？\"}";
+                yield HttpRequest.newBuilder(uri(operation.equals("chatbot") ? "/api/chatbot-query" : "/api/chatbot-query/stream"))
+                        .timeout(Duration.ofSeconds(60))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                        .build();
+            }
+            case "upload" -> {
+                // 以不同 seed 重新產生既有日期的資料，內容改變所以會覆寫並讓快取失效
+                int nights = Math.min(options.uploadNights, options.nights);
+                LocalDate first = GarminExportGenerator.FIRST_NIGHT.plusDays(random.nextInt(options.nights - nights + 1));
+                byte[] csv = new GarminExportGenerator(random.nextLong()).csvBytes(first, nights);
+                yield uploadRequest(csv, "upload.csv");
+            }
+            default -> throw new IllegalStateException(operation);
+        };
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(uri(path)).timeout(Duration.ofSeconds(60)).GET().build();
+    }
+
+    private HttpResponse<String> upload(byte[] csv, String fileName) throws IOException, InterruptedException {
+        return send(uploadRequest(csv, fileName));
+    }
+
+    private HttpRequest uploadRequest(byte[] csv, String fileName) {
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + fileName
+                + "\"\r\nContent-Type: text/csv\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(uri("/api/upload-csv"))
+                .timeout(Duration.ofMinutes(10))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, csv, tail)))
+                .build();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private Map<String, Object> workloadReport(double seconds) {
+        Histogram all = new Histogram(3);
+        long errors = 0;
+        long rejected = 0;
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (OperationStats operation : stats.values()) {
+            all.add(operation.finish());
+            errors += operation.errors();
+            rejected += operation.rejected();
+            operations.put(operation.getName(), operation.report(seconds));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("seconds", OperationStats.round(seconds));
+        result.put("requests", all.getTotalCount());
+        result.put("errors", errors);
+        result.put("rejected", rejected);
+        result.put("throughputPerSecond", OperationStats.round(all.getTotalCount() / seconds));
+        result.put("latencyMs", OperationStats.latencyMillis(all));
+        result.put("operations", operations);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void printSummary(Map<String, Object> report) {
+        Map<String, Object> workload = (Map<String, Object>) report.get("workload");
+        System.out.printf("%-18s %9s %7s %7s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "503", "req/s", "p50 ms", "p99 ms", "p999 ms");
+        ((Map<String, Map<String, Object>>) workload.get("operations")).forEach((name, op) -> {
+            Map<String, Object> latency = (Map<String, Object>) op.get("latencyMs");
+            System.out.printf("%-18s %9d %7d %7d %9.1f %9.2f %9.2f %9.2f%n", name, op.get("requests"),
+                    op.get("errors"), op.get("rejected"), op.get("throughputPerSecond"),
+                    latency.get("p50"), latency.get("p99"), latency.get("p999"));
+        });
+        System.out.println("connection pool: " + report.get("connectionPool"));
+    }
+
+    /** Spring Boot 綁定的 hikaricp.connections.acquire 計時器；量測期間的平均取得連線時間。 */
+    private static final class AcquireSnapshot {
+        final long count;
+        final double totalMillis;
+        final long timeouts;
+
+        private AcquireSnapshot(long count, double totalMillis, long timeouts) {
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.timeouts = timeouts;
+        }
+
+        static AcquireSnapshot of(MeterRegistry registry) {
+            Timer acquire = registry.find("hikaricp.connections.acquire").timer();
+            Counter timeout = registry.find("hikaricp.connections.timeout").counter();
+            return new AcquireSnapshot(acquire == null ? 0 : acquire.count(),
+                    acquire == null ? 0 : acquire.totalTime(TimeUnit.MILLISECONDS),
+                    timeout == null ? 0 : (long) timeout.count());
+        }
+
+        Map<String, Object> since(AcquireSnapshot before) {
+            long acquired = count - before.count;
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("acquisitions", acquired);
+            result.put("meanAcquireMs", OperationStats.round(acquired == 0 ? 0 : (totalMillis - before.totalMillis) / acquired));
+            result.put("acquireTimeouts", timeouts - before.timeouts);
+            return result;
+        }
+    }
+
+    /** 命令列參數，格式為 --name=value。 */
+    static final class Options {
+        static final Set<String> OPERATIONS = Set.of("summary-page", "night-summary", "night-stages",
+                "night-respiration", "night-stats", "range", "chatbot", "chatbot-stream", "upload");
+
+        int users = 50;
+        Duration warmup = Duration.ofSeconds(10);
+        Duration duration = Duration.ofSeconds(60);
+        Duration think = Duration.ZERO;
+        int nights = 10_000;
+        int uploadNights = 30;
+        int questions = 200;
+        Duration geminiLatency = Duration.ofMillis(800);
+        Duration geminiJitter = Duration.ofMillis(400);
+        int geminiChunks = 4;
+        long poolSamplePeriodMillis = 10;
+        long seed = 1;
+        String report = "loadtest-report.json";
+        // 操作 -> 權重
+        Map<String, Integer> mix = parseMix("summary-page:10,night-summary:15,night-stages:15,night-respiration:15,"
+                + "night-stats:15,range:5,chatbot:10,chatbot-stream:5,upload:1");
+        Map<String, String> appProperties = new LinkedHashMap<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("參數格式為 --name=value：" + arg);
+                }
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (name.startsWith("app.")) {
+                    options.appProperties.put(name.substring(4), value);
+                    continue;
+                }
+                switch (name) {
+                    case "users" -> options.users = Integer.parseInt(value);
+                    case "warmup" -> options.warmup = Duration.parse(value);
+                    case "duration" -> options.duration = Duration.parse(value);
+                    case "think" -> options.think = Duration.parse(value);
+                    case "nights" -> options.nights = Integer.parseInt(value);
+                    case "upload-nights" -> options.uploadNights = Integer.parseInt(value);
+                    case "questions" -> options.questions = Integer.parseInt(value);
+                    case "gemini-latency" -> options.geminiLatency = Duration.parse(value);
+                    case "gemini-jitter" -> options.geminiJitter = Duration.parse(value);
+                    case "gemini-chunks" -> options.geminiChunks = Integer.parseInt(value);
+                    case "pool-sample-period-ms" -> options.poolSamplePeriodMillis = Long.parseLong(value);
+                    case "seed" -> options.seed = Long.parseLong(value);
+                    case "report" -> options.report = value;
+                    case "mix" -> options.mix = parseMix(value);
+                    default -> throw new IllegalArgumentException("未知的參數：" + name);
+                }
+            }
+            return options;
+        }
+
+        private static Map<String, Integer> parseMix(String value) {
+            Map<String, Integer> mix = new LinkedHashMap<>();
+            for (String entry : value.split(",")) {
+                String[] parts = entry.split(":");
+                if (!OPERATIONS.contains(parts[0].trim())) {
+                    throw new IllegalArgumentException("未知的操作：" + parts[0] + "，可用的操作：" + OPERATIONS);
+                }
+                int weight = Integer.parseInt(parts[1].trim());
+                if (weight > 0) {
+                    mix.put(parts[0].trim(), weight);
+                }
+            }
+            return mix;
+        }
+
+        Map<String, Object> toReport() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("users", users);
+            result.put("warmup", warmup.toString());
+            result.put("duration", duration.toString());
+            result.put("think", think.toString());
+            result.put("nights", nights);
+            result.put("uploadNights", uploadNights);
+            result.put("questions", questions);
+            result.put("geminiLatency", geminiLatency.toString());
+            result.put("geminiJitter", geminiJitter.toString());
+            result.put("geminiChunks", geminiChunks);
+            result.put("seed", seed);
+            result.put("mix", mix);
+            result.put("appProperties", appProperties);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.jeffery.garmin_sleep.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 單一操作（端點）的延遲分布與結果計數。延遲以微秒記入 HdrHistogram {@link Recorder}，
+ * 多個虛擬使用者可同時記錄；暖機結束時 {@link #reset()} 丟掉暖機期間的資料。
+ * 503（上傳佇列或 Gemini 同時請求數已滿）另外計為 rejected，不算錯誤。
+ */
+final class OperationStats {
+
+    // 1 µs ~ 5 分鐘，3 位有效數字
+    private static final long MAX_MICROS = 300_000_000L;
+
+    private final String name;
+    private final Recorder recorder = new Recorder(MAX_MICROS, 3);
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private Histogram histogram;
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void record(long nanos, int status) {
+        recorder.recordValue(Math.min(Math.max(nanos / 1000, 1), MAX_MICROS));
+        if (status == 503) {
+            rejected.incrementAndGet();
+        } else if (status >= 400 || status < 0) {
+            errors.incrementAndGet();
+        }
+    }
+
+    void reset() {
+        recorder.reset();
+        errors.set(0);
+        rejected.set(0);
+    }
+
+    /** 取出量測期間的分布；之後的記錄不再計入。 */
+    Histogram finish() {
+        histogram = recorder.getIntervalHistogram();
+        return histogram;
+    }
+
+    long errors() {
+        return errors.get();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    Map<String, Object> report(double seconds) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("requests", histogram.getTotalCount());
+        result.put("errors", errors.get());
+        result.put("rejected", rejected.get());
+        result.put("throughputPerSecond", round(histogram.getTotalCount() / seconds));
+        result.put("latencyMs", latencyMillis(histogram));
+        return result;
+    }
+
+    static Map<String, Object> latencyMillis(Histogram histogram) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", round(histogram.getMean() / 1000));
+        latency.put("p50", millis(histogram, 50));
+        latency.put("p90", millis(histogram, 90));
+        latency.put("p99", millis(histogram, 99));
+        latency.put("p999", millis(histogram, 99.9));
+        latency.put("max", round(histogram.getMaxValue() / 1000.0));
+        return latency;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return round(histogram.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,79 @@
+package com.jeffery.garmin_sleep.loadtest;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期讀取 Hikari pool 的使用中連線數與等待連線的執行緒數。
+ * saturatedFraction 為取樣時有執行緒在等連線的比例，代表 pool 大小是否已成為瓶頸。
+ */
+final class PoolSampler implements AutoCloseable {
+
+    private final HikariDataSource dataSource;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pool-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 以下只在 sampler 執行緒寫入，reset/report 以 synchronized 與之同步
+    private long samples;
+    private long activeSum;
+    private int maxActive;
+    private int maxPending;
+    private long saturatedSamples;
+
+    PoolSampler(HikariDataSource dataSource, long periodMillis) {
+        this.dataSource = dataSource;
+        scheduler.scheduleAtFixedRate(this::sample, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sample() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            return;
+        }
+        int active = pool.getActiveConnections();
+        int pending = pool.getThreadsAwaitingConnection();
+        samples++;
+        activeSum += active;
+        maxActive = Math.max(maxActive, active);
+        maxPending = Math.max(maxPending, pending);
+        if (pending > 0) {
+            saturatedSamples++;
+        }
+    }
+
+    synchronized void reset() {
+        samples = 0;
+        activeSum = 0;
+        maxActive = 0;
+        maxPending = 0;
+        saturatedSamples = 0;
+    }
+
+    synchronized Map<String, Object> report() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        int maxPoolSize = dataSource.getMaximumPoolSize();
+        double meanActive = samples == 0 ? 0 : activeSum / (double) samples;
+        result.put("maximumPoolSize", maxPoolSize);
+        result.put("samples", samples);
+        result.put("meanActive", OperationStats.round(meanActive));
+        result.put("maxActive", maxActive);
+        result.put("utilization", OperationStats.round(meanActive / maxPoolSize));
+        result.put("maxPending", maxPending);
+        result.put("saturatedFraction", OperationStats.round(samples == 0 ? 0 : saturatedSamples / (double) samples));
+        return result;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
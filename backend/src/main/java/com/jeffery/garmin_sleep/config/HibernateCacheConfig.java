@@ -0,0 +1,60 @@
+package com.jeffery.garmin_sleep.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.util.OptionalLong;
+
+/**
+ * Hibernate 二級快取與查詢快取的 JCache region（Caffeine 實作，in-process）。
+ * 實體快取只有 SleepSummary；統計值與呼吸序列由 NightViewCache 以 JDBC 讀取，不經過 Hibernate。
+ * region 在這裡依 hibernate-cache.* 的大小上限建立後交給 Hibernate，不使用外部設定檔：
+ * Hibernate 會把 classpath 設定檔轉成 jar: URI，Caffeine 在打包後的 jar 中讀不到。
+ * 匯入流程以 JDBC 直接寫入，不經過 Hibernate，失效由 SecondLevelCacheInvalidator 處理。
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+    public static final String SUMMARY_REGION = "sleep-summary";
+    private static final String QUERY_REGION = "default-query-results-region";
+    private static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(
+            @Value("${hibernate-cache.summary-max-size:5000}") long summaryMaxSize,
+            @Value("${hibernate-cache.query-max-size:1000}") long queryMaxSize) {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName()).getCacheManager();
+        createRegion(cacheManager, SUMMARY_REGION, summaryMaxSize);
+        createRegion(cacheManager, QUERY_REGION, queryMaxSize);
+        // 每個資料表一筆最後更新時間，筆數很少；被淘汰會讓查詢快取無法判斷是否過期
+        createRegion(cacheManager, TIMESTAMPS_REGION, 10_000);
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            // 實體 region 都在上面建立，漏設 @Cache region 名稱時啟動直接失敗
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    private static void createRegion(CacheManager cacheManager, String region, long maxSize) {
+        if (cacheManager.getCache(region) != null) {
+            // 同一個 JVM 內重建 context（例如測試）時 CacheManager 會共用
+            cacheManager.destroyCache(region);
+        }
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maxSize));
+        configuration.setStatisticsEnabled(true);
+        cacheManager.createCache(region, configuration);
+    }
+}
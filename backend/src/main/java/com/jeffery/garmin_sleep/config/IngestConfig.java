@@ -0,0 +1,51 @@
+package com.jeffery.garmin_sleep.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class IngestConfig {
+
+    /**
+     * 執行上傳工作的 pool。同時只處理 max-concurrent-jobs 個檔案，
+     * 排隊數超過 max-queued-jobs 時直接拒絕（上傳端收到 503）。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor uploadJobExecutor(
+            @Value("${ingest.max-concurrent-jobs:2}") int maxConcurrentJobs,
+            @Value("${ingest.max-queued-jobs:20}") int maxQueuedJobs) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrentJobs);
+        executor.setMaxPoolSize(maxConcurrentJobs);
+        executor.setQueueCapacity(maxQueuedJobs);
+        executor.setThreadNamePrefix("upload-job-");
+        executor.setTaskDecorator(new MdcTaskDecorator());
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * 解析與寫入夜晚資料的 worker pool，所有上傳工作共用。
+     * 佇列滿時由讀檔的執行緒自己執行（CallerRuns），讀取速度因此受 worker 速度牽制。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor ingestWorkerExecutor(
+            @Value("${ingest.worker-threads:0}") int workerThreads,
+            @Value("${ingest.worker-queue-capacity:8}") int queueCapacity) {
+        int threads = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ingest-worker-");
+        executor.setTaskDecorator(new MdcTaskDecorator());
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
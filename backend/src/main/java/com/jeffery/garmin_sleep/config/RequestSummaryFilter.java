@@ -0,0 +1,135 @@
+package com.jeffery.garmin_sleep.config;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * 每個請求指定 traceId（沿用合法的 X-Request-Id，否則產生新的）放進 MDC 並回傳在 X-Request-Id，
+ * 同一請求的所有 log（包含交給 upload / ingest pool 的工作）都帶同一個 traceId。
+ * 請求結束時依 sample-rate 抽樣輸出一筆摘要（method、path、status、耗時、SQL 數）；
+ * 5xx 與超過 slow-threshold 的請求一律輸出。摘要欄位放在 MDC，JSON log 中為獨立欄位。
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Slf4j
+public class RequestSummaryFilter extends OncePerRequestFilter {
+
+    public static final String TRACE_ID = "traceId";
+    public static final String HEADER = "X-Request-Id";
+
+    private static final Pattern VALID_TRACE_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    private final double sampleRate;
+    private final long slowThresholdMillis;
+
+    public RequestSummaryFilter(@Value("${logging.request-summary.sample-rate:1.0}") double sampleRate,
+                                @Value("${logging.request-summary.slow-threshold:PT1S}") Duration slowThreshold) {
+        this.sampleRate = sampleRate;
+        this.slowThresholdMillis = slowThreshold.toMillis();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String incoming = request.getHeader(HEADER);
+        String traceId = incoming != null && VALID_TRACE_ID.matcher(incoming).matches() ? incoming : newTraceId();
+        long startedAt = System.nanoTime();
+        MDC.put(TRACE_ID, traceId);
+        response.setHeader(HEADER, traceId);
+        SqlStatementCounter.reset();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            // 資料庫查詢都在第一次 dispatch 完成；非同步回應（Gemini、SSE）等整個請求結束才輸出摘要
+            int sqlCount = SqlStatementCounter.current();
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new SummaryListener(traceId, startedAt, sqlCount));
+            } else {
+                summarize(request, response, traceId, startedAt, sqlCount);
+            }
+            MDC.remove(TRACE_ID);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().startsWith("/actuator");
+    }
+
+    private void summarize(HttpServletRequest request, HttpServletResponse response, String traceId,
+                           long startedAt, int sqlCount) {
+        long millis = (System.nanoTime() - startedAt) / 1_000_000;
+        int status = response.getStatus();
+        boolean always = status >= 500 || millis >= slowThresholdMillis;
+        if (!always && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        MDC.put(TRACE_ID, traceId);
+        MDC.put("method", request.getMethod());
+        MDC.put("path", request.getRequestURI());
+        MDC.put("status", String.valueOf(status));
+        MDC.put("durationMs", String.valueOf(millis));
+        MDC.put("sqlCount", String.valueOf(sqlCount));
+        try {
+            log.info("{} {} -> {} in {} ms, {} SQL", request.getMethod(), request.getRequestURI(), status, millis, sqlCount);
+        } finally {
+            MDC.remove("method");
+            MDC.remove("path");
+            MDC.remove("status");
+            MDC.remove("durationMs");
+            MDC.remove("sqlCount");
+        }
+    }
+
+    private static String newTraceId() {
+        return HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong());
+    }
+
+    private final class SummaryListener implements AsyncListener {
+        private final String traceId;
+        private final long startedAt;
+        private final int sqlCount;
+
+        SummaryListener(String traceId, long startedAt, int sqlCount) {
+            this.traceId = traceId;
+            this.startedAt = startedAt;
+            this.sqlCount = sqlCount;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            summarize((HttpServletRequest) event.getSuppliedRequest(), (HttpServletResponse) event.getSuppliedResponse(),
+                    traceId, startedAt, sqlCount);
+            MDC.remove(TRACE_ID);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
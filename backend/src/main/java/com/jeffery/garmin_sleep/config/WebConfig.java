@@ -0,0 +1,28 @@
+package com.jeffery.garmin_sleep.config;
+
+import com.jeffery.garmin_sleep.service.ExportDataset;
+import com.jeffery.garmin_sleep.service.IngestMode;
+import com.jeffery.garmin_sleep.service.RangeBucket;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.Locale;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    /**
+     * 逐晚時間序列（階段、呼吸率）的欄位格式。以 Accept 選擇：此類型為欄位格式的 JSON，
+     * application/cbor 為同一結構的 CBOR；其他（含 application/json）維持原本逐筆物件的陣列。
+     */
+    public static final String COLUMNAR_JSON_VALUE = "application/vnd.sleepgenius.columnar+json";
+
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        // ?mode=upsert / ?mode=UPSERT 都接受
+        registry.addConverter(String.class, IngestMode.class, s -> IngestMode.valueOf(s.trim().toUpperCase(Locale.ROOT)));
+        registry.addConverter(String.class, RangeBucket.class, s -> RangeBucket.valueOf(s.trim().toUpperCase(Locale.ROOT)));
+        registry.addConverter(String.class, ExportDataset.class, s -> ExportDataset.valueOf(s.trim().toUpperCase(Locale.ROOT)));
+    }
+}
@@ -1,36 +1,54 @@
 package com.jeffery.garmin_sleep.controller;
 
+import com.jeffery.garmin_sleep.config.WebConfig;
+import com.jeffery.garmin_sleep.dto.RespirationColumnsDTO;
 import com.jeffery.garmin_sleep.dto.RespirationDTO;
+import com.jeffery.garmin_sleep.dto.SleepAnomaly;
+import com.jeffery.garmin_sleep.dto.SleepRangeResponse;
+import com.jeffery.garmin_sleep.dto.SleepStageColumnsDTO;
 import com.jeffery.garmin_sleep.dto.SleepStageSegmentDTO;
-import com.jeffery.garmin_sleep.model.SleepRespiration;
-import com.jeffery.garmin_sleep.model.SleepStageSegment;
+import com.jeffery.garmin_sleep.dto.SleepWindowResponse;
+import com.jeffery.garmin_sleep.dto.UploadJobStatus;
+import com.jeffery.garmin_sleep.model.Hypnogram;
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import com.jeffery.garmin_sleep.model.SleepNightStats;
 import com.jeffery.garmin_sleep.model.SleepSummary;
-import com.jeffery.garmin_sleep.repository.SleepRespirationRepository;
-import com.jeffery.garmin_sleep.repository.SleepStageSegmentRepository;
+import com.jeffery.garmin_sleep.model.UploadJob;
 import com.jeffery.garmin_sleep.repository.SleepSummaryRepository;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jeffery.garmin_sleep.service.ExportDataset;
+import com.jeffery.garmin_sleep.service.IngestMode;
+import com.jeffery.garmin_sleep.service.NightViewCache;
+import com.jeffery.garmin_sleep.service.RangeAnalyticsService;
+import com.jeffery.garmin_sleep.service.RangeBucket;
+import com.jeffery.garmin_sleep.service.SleepAnomalyService;
+import com.jeffery.garmin_sleep.service.SleepExportService;
+import com.jeffery.garmin_sleep.service.SleepSummaryQueryService;
+import com.jeffery.garmin_sleep.service.UploadJobService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 
+import java.io.IOException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.util.function.Function;
+import java.net.URI;
 
 
 @RestController
@@ -43,113 +61,224 @@ public class BackendController {
         return "後端連線成功！";
     }
     private static final Logger logger = LoggerFactory.getLogger(BackendController.class);
+    private static final int MAX_RANGE_POINTS = 20000;
     private final SleepSummaryRepository sleepSummaryRepository;
-    private final SleepStageSegmentRepository sleepStageSegmentRepository;
-    private final SleepRespirationRepository sleepRespirationRepository;
+    private final NightViewCache nightViewCache;
+    private final RangeAnalyticsService rangeAnalyticsService;
+    private final SleepSummaryQueryService sleepSummaryQueryService;
+    private final UploadJobService uploadJobService;
+    private final SleepAnomalyService sleepAnomalyService;
+    private final SleepExportService sleepExportService;
 
+    // 指定 startDate 與 endDate 時回傳該區間；否則以 keyset 分頁，下一頁帶入回傳的 nextCursor
     @GetMapping("/sleep-summary")
-    public ResponseEntity<List<SleepSummary>> getAllSummaries(
+    public ResponseEntity<?> getAllSummaries(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer pageSize
     ) {
         if (startDate != null && endDate != null) {
             return ResponseEntity.ok(sleepSummaryRepository.findByDateBetween(startDate, endDate));
         }
-        return ResponseEntity.ok(sleepSummaryRepository.findAll());
+        try {
+            return ResponseEntity.ok(sleepSummaryQueryService.page(cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // 完整匯出：?format=ndjson 時逐列串流寫出，不在記憶體中組出整個列表
+    @GetMapping(value = "/sleep-summary", params = "format=ndjson", produces = "application/x-ndjson")
+    public void streamSummaries(HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        sleepSummaryQueryService.streamAll(response.getOutputStream());
     }
 
+    // 以下單晚 API 都由 NightViewCache 取得資料，回應帶 ETag，瀏覽器重新驗證時得到 304
     // 查詢指定日期的摘要
     @GetMapping("/sleep-summary/{date}")
-    public Optional<SleepSummary> getSummaryByDate(@PathVariable String date) {
-        return sleepSummaryRepository.findByDate(LocalDate.parse(date));
+    public ResponseEntity<SleepSummary> getSummaryByDate(@PathVariable String date) {
+        return nightView(date, "summary", NightContext::getSummary, null);
     }
 
     @GetMapping("/sleep-stages/{date}")
-    public List<SleepStageSegmentDTO> getStagesByDate(@PathVariable String date) {
-        return sleepStageSegmentRepository.findBySleepSummary_Date(LocalDate.parse(date)).stream()
-                .map(s -> new SleepStageSegmentDTO(
-                        s.getStageType(),
-                        s.getStartTime(),
-                        s.getEndTime(),
-                        s.getDuration(),
-                        s.getSleepSummary().getSummaryId()
-                ))
-                .toList();
+    public ResponseEntity<List<SleepStageSegmentDTO>> getStagesByDate(@PathVariable String date) {
+        return nightView(date, "stages", BackendController::toStageDtos, List.of());
+    }
+
+    // 欄位格式（Accept 見 WebConfig.COLUMNAR_JSON_VALUE），陣列直接取自快取，不逐筆建立 DTO
+    @GetMapping(value = "/sleep-stages/{date}", produces = {WebConfig.COLUMNAR_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<SleepStageColumnsDTO> getStageColumnsByDate(@PathVariable String date) {
+        return nightView(date, "stages-columnar",
+                night -> new SleepStageColumnsDTO(night.getSummary().getSummaryId(), date,
+                        night.getStageTypes(), night.getStageStarts(), night.getStageEnds()),
+                new SleepStageColumnsDTO(null, date, new String[0], new long[0], new long[0]));
+    }
+
+    // 時段查詢：from / to 為當晚的時刻（中午以後視為前一天晚上），省略時為整晚；at 回傳該時刻的階段
+    @GetMapping("/sleep-stages/{date}/window")
+    public ResponseEntity<SleepWindowResponse> getStageWindow(
+            @PathVariable String date,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "HH:mm") LocalTime from,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "HH:mm") LocalTime to,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "HH:mm") LocalTime at
+    ) {
+        LocalDate night = LocalDate.parse(date);
+        return nightViewCache.find(night)
+                .map(context -> {
+                    Hypnogram hypnogram = context.getHypnogram();
+                    long fromSecond = from == null ? hypnogram.start() : toEpochSecond(night, from);
+                    long toSecond = to == null ? hypnogram.end() : toEpochSecond(night, to);
+                    if (toSecond < fromSecond) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "to 不可早於 from");
+                    }
+                    Long atSecond = at == null ? null : toEpochSecond(night, at);
+                    int stageAt = atSecond == null ? -1 : hypnogram.stageAt(atSecond);
+                    return tagged(context, "window", new SleepWindowResponse(date, fromSecond, toSecond,
+                            hypnogram.secondsIn(Hypnogram.DEEP, fromSecond, toSecond),
+                            hypnogram.secondsIn(Hypnogram.LIGHT, fromSecond, toSecond),
+                            hypnogram.secondsIn(Hypnogram.REM, fromSecond, toSecond),
+                            hypnogram.secondsIn(Hypnogram.AWAKE, fromSecond, toSecond),
+                            hypnogram.secondsIn(Hypnogram.UNMEASURABLE, fromSecond, toSecond),
+                            atSecond, stageAt < 0 ? null : Hypnogram.name(stageAt)));
+                })
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "該日期無資料"));
     }
 
     @GetMapping("/sleep-respiration/{date}")
-    public List<RespirationDTO> getRespirationByDate(@PathVariable String date) {
-        return sleepRespirationRepository.findBySleepSummary_Date(LocalDate.parse(date)).stream()
-                .map(r -> new RespirationDTO(
-                        r.getOffsetSeconds(),
-                        r.getRespirationRate(),
-                        r.getSleepSummary().getSummaryId(),
-                        r.getSleepSummary().getDate().toString() // ✅ 把日期也傳出
-                ))
-                .toList();
+    public ResponseEntity<List<RespirationDTO>> getRespirationByDate(@PathVariable String date) {
+        return nightView(date, "respiration", night -> toRespirationDtos(night.getRespiration()), List.of());
+    }
+
+    @GetMapping(value = "/sleep-respiration/{date}", produces = {WebConfig.COLUMNAR_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<RespirationColumnsDTO> getRespirationColumnsByDate(@PathVariable String date) {
+        return nightView(date, "respiration-columnar",
+                night -> new RespirationColumnsDTO(night.getSummary().getSummaryId(), date,
+                        night.getRespiration().getOffsets(), night.getRespiration().getRates()),
+                new RespirationColumnsDTO(null, date, new int[0], new double[0]));
     }
+
+    // 匯入時預先算好的每晚統計值，摘要類的畫面用這個而不是原始樣本
+    @GetMapping("/sleep-stats/{date}")
+    public ResponseEntity<SleepNightStats> getStatsByDate(@PathVariable String date) {
+        return nightViewCache.find(LocalDate.parse(date))
+                .map(night -> tagged(night, "stats", night.getStats()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // 多晚趨勢：依 bucket 彙總，呼吸率曲線降採樣到 points 個點以內
+    @GetMapping("/sleep-range")
+    public SleepRangeResponse getRange(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "day") RangeBucket bucket,
+            @RequestParam(defaultValue = "1000") int points
+    ) {
+        if (endDate.isBefore(startDate)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "endDate 不可早於 startDate");
+        }
+        if (points < 3 || points > MAX_RANGE_POINTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "points 需介於 3 與 " + MAX_RANGE_POINTS + " 之間");
+        }
+        return rangeAnalyticsService.findRange(startDate, endDate, bucket, points);
+    }
+
+    // 與個人基準（該晚之前的夜晚）差異超過門檻的夜晚，未指定區間時回傳全部
+    @GetMapping("/sleep-anomalies")
+    public List<SleepAnomaly> getAnomalies(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate
+    ) {
+        if (startDate != null && endDate != null && endDate.isBefore(startDate)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "endDate 不可早於 startDate");
+        }
+        return sleepAnomalyService.findAnomalies(startDate, endDate);
+    }
+
+    // 區間批次匯出：?dataset=summary|stages|respiration，以 cursor 逐列寫成 gzip CSV 直接送出
+    @GetMapping("/export")
+    public void export(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "summary") ExportDataset dataset,
+            HttpServletResponse response
+    ) throws IOException {
+        if (endDate.isBefore(startDate)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "endDate 不可早於 startDate");
+        }
+        String fileName = dataset.getFileName() + "_" + startDate + "_" + endDate + ".csv.gz";
+        response.setContentType("application/gzip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+        sleepExportService.export(dataset, startDate, endDate, response.getOutputStream());
+    }
+
+    // 檔案先寫到 spool 目錄就回傳 202 與 job，匯入進度用 /upload-jobs/{id} 查詢
     @PostMapping("/upload-csv")
-    public ResponseEntity<String> uploadCsv(@RequestParam("file") MultipartFile file) {
-        try (Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
-            CSVFormat format = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build();
-            CSVParser csvParser = new CSVParser(reader, format);
-            ObjectMapper objectMapper = new ObjectMapper();
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-
-            for (CSVRecord record : csvParser) {
-                String jsonData = record.get("data");
-
-                JsonNode root = objectMapper.readTree(jsonData);
-                String summaryId = root.path("summaryId").asText();
-                String dateStr = root.path("calendarDate").asText();
-                LocalDate date = LocalDate.parse(dateStr, dateFormatter);
-
-                // Save to sleep_summary
-                SleepSummary summary = new SleepSummary(
-                        summaryId,
-                        date,
-                        root.path("durationInSeconds").asInt(),
-                        root.path("deepSleepDurationInSeconds").asInt(),
-                        root.path("lightSleepDurationInSeconds").asInt(),
-                        root.path("remSleepInSeconds").asInt(),
-                        root.path("awakeDurationInSeconds").asInt(),
-                        root.path("overallSleepScore").path("value").asInt(),
-                        root.path("overallSleepScore").path("qualifierKey").asText(null)
-                );
-                sleepSummaryRepository.save(summary);
-
-                // Save to sleep_stage_segments
-                JsonNode stageMap = root.path("sleepLevelsMap");
-                if (stageMap.isObject()) {
-                    Iterator<String> fieldNames = stageMap.fieldNames();
-                    while (fieldNames.hasNext()) {
-                        String stageType = fieldNames.next();
-                        for (JsonNode segment : stageMap.path(stageType)) {
-                            long start = segment.path("startTimeInSeconds").asLong();
-                            long end = segment.path("endTimeInSeconds").asLong();
-                            int duration = (int) (end - start);
-                            SleepStageSegment s = new SleepStageSegment(null, stageType, start, end, duration, summary);
-                            sleepStageSegmentRepository.save(s);
-                        }
-                    }
-                }
-
-                // Save to sleep_respiration
-                JsonNode respiration = root.path("timeOffsetSleepRespiration");
-                if (respiration.isObject()) {
-                    Iterator<String> offsets = respiration.fieldNames();
-                    while (offsets.hasNext()) {
-                        String offsetStr = offsets.next();
-                        Double rate = respiration.path(offsetStr).asDouble();
-                        SleepRespiration r = new SleepRespiration(null, Integer.parseInt(offsetStr), rate, summary);
-                        sleepRespirationRepository.save(r);
-                    }
-                }
-            }
-            return ResponseEntity.ok("Upload and processing completed.");
+    public ResponseEntity<?> uploadCsv(@RequestParam("file") MultipartFile file,
+                                       @RequestParam(required = false) IngestMode mode) {
+        try {
+            UploadJob job = uploadJobService.submit(file, mode);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/upload-jobs/" + job.getId()))
+                    .body(job.toStatus(false));
+        } catch (TaskRejectedException e) {
+            logger.warn("Upload rejected, ingest queue is full");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Error: upload queue is full, please retry later");
         } catch (Exception e) {
-            logger.error("Error occurred while processing uploaded CSV", e);
+            logger.error("Error occurred while accepting uploaded CSV", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error: " + e.getMessage());
         }
     }
+
+    @GetMapping("/upload-jobs/{id}")
+    public UploadJobStatus getUploadJob(@PathVariable String id,
+                                        @RequestParam(defaultValue = "true") boolean includeNights) {
+        return uploadJobService.find(id)
+                .map(job -> job.toStatus(includeNights))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "找不到上傳工作"));
+    }
+
+    // 查無資料的日期不帶 ETag，該晚匯入後第一次查詢就拿得到新內容
+    private <T> ResponseEntity<T> nightView(String date, String part, Function<NightContext, T> body, T empty) {
+        return nightViewCache.find(LocalDate.parse(date))
+                .map(night -> tagged(night, part, body.apply(night)))
+                .orElseGet(() -> ResponseEntity.ok(empty));
+    }
+
+    // 階段與呼吸率同一個 URL 依 Accept 有不同格式，ETag 的 part 也不同
+    private <T> ResponseEntity<T> tagged(NightContext night, String part, T body) {
+        return ResponseEntity.ok()
+                .eTag(night.etag(part))
+                .cacheControl(nightViewCache.getCacheControl())
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
+    // 與 chatbot prompt 的時刻相同使用系統時區
+    private static long toEpochSecond(LocalDate night, LocalTime time) {
+        LocalDate day = time.isBefore(LocalTime.NOON) ? night : night.minusDays(1);
+        return day.atTime(time).atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    private static List<SleepStageSegmentDTO> toStageDtos(NightContext night) {
+        String summaryId = night.getSummary().getSummaryId();
+        List<SleepStageSegmentDTO> dtos = new ArrayList<>(night.getStageTypes().length);
+        for (int i = 0; i < night.getStageTypes().length; i++) {
+            long start = night.getStageStarts()[i];
+            long end = night.getStageEnds()[i];
+            dtos.add(new SleepStageSegmentDTO(night.getStageTypes()[i], start, end, (int) (end - start), summaryId));
+        }
+        return dtos;
+    }
+
+    private static List<RespirationDTO> toRespirationDtos(RespirationSeries series) {
+        String date = series.getDate().toString();
+        List<RespirationDTO> dtos = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            dtos.add(new RespirationDTO(series.getOffsets()[i], series.getRates()[i], series.getSummaryId(), date));
+        }
+        return dtos;
+    }
 }
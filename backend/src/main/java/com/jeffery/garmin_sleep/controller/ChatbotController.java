@@ -3,10 +3,15 @@ package com.jeffery.garmin_sleep.controller;
 import com.jeffery.garmin_sleep.dto.ChatbotRequest;
 import com.jeffery.garmin_sleep.dto.ChatbotResponse;
 import com.jeffery.garmin_sleep.service.GeminiChatService;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
 
 @RestController
 @RequestMapping("/api")
@@ -15,10 +20,19 @@ public class ChatbotController {
 
     private final GeminiChatService geminiChatService;
 
+    // 回傳 CompletableFuture，等待 Gemini 時 Tomcat worker 即可處理其他請求
     @PostMapping("/chatbot-query")
-    public ResponseEntity<ChatbotResponse> query(@RequestBody ChatbotRequest request) {
-        return ResponseEntity.ok(
-                geminiChatService.askGemini(request.getDate(), request.getQuestion())
-        );
+    public CompletableFuture<ChatbotResponse> query(@RequestBody ChatbotRequest request) {
+        return geminiChatService.askGemini(request.getDate(), request.getQuestion());
+    }
+
+    // SSE 串流：score 事件 → 多個 chunk 事件 → done（或 error）
+    @PostMapping(value = "/chatbot-query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter queryStream(@RequestBody ChatbotRequest request, HttpServletResponse response) throws IOException {
+        // 前面若有 nginx 等反向代理，要求不要緩衝這個回應（nginx.conf 也對此路徑關閉了 proxy_buffering）
+        response.setHeader("X-Accel-Buffering", "no");
+        SseEmitter emitter = new SseEmitter();
+        geminiChatService.streamAnswer(request.getDate(), request.getQuestion(), emitter);
+        return emitter;
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.jeffery.garmin_sleep.controller;
+
+import com.jeffery.garmin_sleep.service.IngestMetrics;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import lombok.RequiredArgsConstructor;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /actuator/hotpaths：API、資料庫查詢、匯入與 Gemini 的計時器依累計時間排序，附 p50/p95/p99
+ * （由與 Prometheus 相同的 histogram bucket 估算，取 bucket 上界），方便不接 Prometheus 時直接查看。
+ */
+@Component
+@Endpoint(id = "hotpaths")
+@RequiredArgsConstructor
+public class HotPathsEndpoint {
+
+    private static final List<String> PREFIXES = List.of(
+            "http.server.requests", "spring.data.repository.invocations", "sleep.query", "ingest.", "gemini.");
+
+    private final MeterRegistry meterRegistry;
+    private final IngestMetrics ingestMetrics;
+
+    @ReadOperation
+    public Map<String, Object> hotPaths() {
+        List<Map<String, Object>> timers = new ArrayList<>();
+        for (Meter meter : meterRegistry.getMeters()) {
+            String name = meter.getId().getName();
+            if (!(meter instanceof Timer timer) || timer.count() == 0 || PREFIXES.stream().noneMatch(name::startsWith)) {
+                continue;
+            }
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, String> tags = new TreeMap<>();
+            timer.getId().getTags().forEach(tag -> tags.put(tag.getKey(), tag.getValue()));
+
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", name);
+            entry.put("tags", tags);
+            entry.put("count", snapshot.count());
+            entry.put("totalMs", snapshot.total(TimeUnit.MILLISECONDS));
+            entry.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+            entry.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+            entry.put("p50Ms", percentile(snapshot, 0.50));
+            entry.put("p95Ms", percentile(snapshot, 0.95));
+            entry.put("p99Ms", percentile(snapshot, 0.99));
+            timers.add(entry);
+        }
+        timers.sort(Comparator.comparingDouble((Map<String, Object> e) -> (double) e.get("totalMs")).reversed());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ingestRowsPerSecond", ingestMetrics.rowsPerSecond());
+        result.put("timers", timers);
+        return result;
+    }
+
+    // histogram bucket 為累計數，回傳第一個涵蓋該比例的 bucket 上界；沒有 histogram 時回傳 null
+    private static Double percentile(HistogramSnapshot snapshot, double quantile) {
+        CountAtBucket[] buckets = snapshot.histogramCounts();
+        if (buckets.length == 0) {
+            return null;
+        }
+        double target = snapshot.count() * quantile;
+        for (CountAtBucket bucket : buckets) {
+            if (bucket.count() >= target) {
+                return bucket.bucket(TimeUnit.MILLISECONDS);
+            }
+        }
+        return snapshot.max(TimeUnit.MILLISECONDS);
+    }
+}
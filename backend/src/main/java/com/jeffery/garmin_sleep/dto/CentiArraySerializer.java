@@ -0,0 +1,26 @@
+package com.jeffery.garmin_sleep.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * 把 double[] 以「乘 100 後四捨五入的整數」陣列寫出，直接從原始陣列逐筆寫入，不配置中間物件。
+ */
+public class CentiArraySerializer extends StdSerializer<double[]> {
+
+    public CentiArraySerializer() {
+        super(double[].class);
+    }
+
+    @Override
+    public void serialize(double[] values, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartArray(values, values.length);
+        for (double value : values) {
+            gen.writeNumber((int) Math.round(value * 100));
+        }
+        gen.writeEndArray();
+    }
+}
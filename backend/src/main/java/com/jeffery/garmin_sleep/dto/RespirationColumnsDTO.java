@@ -0,0 +1,24 @@
+package com.jeffery.garmin_sleep.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一晚呼吸率的欄位格式：summaryId 與 date 只出現一次，offsetSeconds[i] 與 respirationRateCenti[i] 為同一筆樣本。
+ * 呼吸率以 bpm × 100 的整數送出（與儲存精度相同），CBOR 中每筆只佔 2~3 bytes 而不是 9 bytes 的 double。
+ * 陣列直接引用快取中的序列，序列化時逐筆換算寫出，不會另外配置陣列或為每個樣本建立物件。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RespirationColumnsDTO {
+    private String summaryId;
+    private String date;
+    private int[] offsetSeconds;
+    @JsonProperty("respirationRateCenti")
+    @JsonSerialize(using = CentiArraySerializer.class)
+    private double[] respirationRate;
+}
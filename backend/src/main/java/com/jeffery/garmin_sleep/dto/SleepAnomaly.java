@@ -0,0 +1,32 @@
+package com.jeffery.garmin_sleep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepAnomaly {
+    private String date;
+    private String summaryId;
+    private List<Deviation> deviations; // 只列出超出門檻的指標
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Deviation {
+        private String metric;   // score、deepRatio、remRatio、respiration
+        private double value;
+        private double baseline; // 該晚之前的 EWMA
+        private double sigmas;   // z 分數：與 baseline 相差幾個標準差
+        private double mean;     // 該晚之前全部夜晚的平均與標準差
+        private double stdDev;
+        private double p10;
+        private double p50;
+        private double p90;
+        private long nights;     // 基準涵蓋的夜晚數
+    }
+}
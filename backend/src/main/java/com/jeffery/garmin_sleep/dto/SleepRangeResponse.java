@@ -0,0 +1,44 @@
+package com.jeffery.garmin_sleep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepRangeResponse {
+    private String startDate;
+    private String endDate;
+    private String bucket;
+    private int pointBudget;
+    private long respirationSamples; // 區間內原始樣本數，降採樣前
+    private List<Bucket> buckets;
+    private List<RespirationPoint> respiration;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Bucket {
+        private String start; // 該桶第一天
+        private int nights;
+        private Double avgScore;
+        private Double avgTotalMinutes;
+        private Double avgRespiration;
+        private double deepMinutes;
+        private double lightMinutes;
+        private double remMinutes;
+        private double awakeMinutes;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RespirationPoint {
+        private String date;
+        private int offsetSeconds;
+        private double respirationRate;
+    }
+}
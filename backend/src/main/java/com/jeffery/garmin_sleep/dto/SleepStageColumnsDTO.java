@@ -0,0 +1,20 @@
+package com.jeffery.garmin_sleep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一晚睡眠階段的欄位格式，依開始時間排序；stageType[i]、startTime[i]、endTime[i] 為同一個片段，
+ * 長度（逐筆格式的 duration）為 endTime[i] - startTime[i]。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepStageColumnsDTO {
+    private String summaryId;
+    private String date;
+    private String[] stageType;
+    private long[] startTime;
+    private long[] endTime;
+}
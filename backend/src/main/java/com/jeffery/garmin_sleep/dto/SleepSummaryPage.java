@@ -0,0 +1,16 @@
+package com.jeffery.garmin_sleep.dto;
+
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepSummaryPage {
+    private List<SleepSummary> items;
+    private String nextCursor; // 最後一頁為 null
+}
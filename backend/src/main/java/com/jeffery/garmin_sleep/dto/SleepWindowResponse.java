@@ -0,0 +1,21 @@
+package com.jeffery.garmin_sleep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepWindowResponse {
+    private String date;
+    private long from; // epoch 秒，區間為 [from, to)
+    private long to;
+    private long deepSeconds;
+    private long lightSeconds;
+    private long remSeconds;
+    private long awakeSeconds;
+    private long unmeasurableSeconds;
+    private Long at;        // 有帶 at 參數時才有
+    private String stageAt; // at 時刻的階段；落在片段空隙時為 null
+}
@@ -0,0 +1,56 @@
+package com.jeffery.garmin_sleep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadJobStatus {
+    private String jobId;
+    private String status;
+    private String fileName;
+    private String mode;
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    // 解析成功且所在 chunk 未寫入失敗的夜晚（含已寫入、略過與尚待寫入）；與 nightsFailed 相加為已讀取的夜晚數
+    private int nightsParsed;
+    private int nightsWritten;
+    private int nightsSkipped;
+    private int nightsFailed;
+    private long rowsParsed;
+    private long rowsWritten;
+    private long elapsedMillis;
+    private double rowsPerSecond;
+    private String error;
+    private List<ChunkStats> chunks;
+    private List<NightStatus> nights;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ChunkStats {
+        private int index;
+        private int nights;
+        private int rows;
+        private long millis;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class NightStatus {
+        private int record;
+        private String summaryId;
+        private String date;
+        private String status;
+        private int rowsParsed;
+        private int rowsWritten;
+        private String error;
+    }
+}
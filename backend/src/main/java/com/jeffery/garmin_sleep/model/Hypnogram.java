@@ -0,0 +1,161 @@
+package com.jeffery.garmin_sleep.model;
+
+import java.util.Arrays;
+
+/**
+ * 一晚的階段片段索引：依開始時間排序的平行陣列，加上每個階段的累計秒數（prefix sum）。
+ * 「某時間點的階段」、「某時段內各階段幾秒」都以二分搜尋在 O(log n) 內回答，查詢時不配置物件。
+ * 片段之間可以有空隙（沒有記錄的時間不算入任何階段）；與前一段重疊的部分在建立時截掉。
+ * 時間皆為 epoch 秒，區間為 [from, to)。
+ */
+public final class Hypnogram {
+
+    public static final int DEEP = 0;
+    public static final int LIGHT = 1;
+    public static final int REM = 2;
+    public static final int AWAKE = 3;
+    public static final int UNMEASURABLE = 4;
+    public static final int STAGE_COUNT = 5;
+
+    private static final String[] NAMES = {"deep", "light", "rem", "awake", "unmeasurable"};
+
+    private final long[] starts;
+    private final long[] ends;
+    private final byte[] stages;
+    // cumulative[stage][i]：前 i 個片段中該階段的總秒數
+    private final long[][] cumulative;
+
+    /** types / starts / ends 為依開始時間排序的平行陣列（與 sleep_stage_segments 的查詢順序相同）。 */
+    public Hypnogram(String[] types, long[] starts, long[] ends) {
+        int n = types.length;
+        long[] s = new long[n];
+        long[] e = new long[n];
+        byte[] st = new byte[n];
+        int size = 0;
+        long previousEnd = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            long start = Math.max(starts[i], previousEnd);
+            if (ends[i] <= start) {
+                continue;
+            }
+            s[size] = start;
+            e[size] = ends[i];
+            st[size] = (byte) stageOf(types[i]);
+            previousEnd = ends[i];
+            size++;
+        }
+        this.starts = size == n ? s : Arrays.copyOf(s, size);
+        this.ends = size == n ? e : Arrays.copyOf(e, size);
+        this.stages = size == n ? st : Arrays.copyOf(st, size);
+
+        this.cumulative = new long[STAGE_COUNT][size + 1];
+        for (int i = 0; i < size; i++) {
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                cumulative[stage][i + 1] = cumulative[stage][i];
+            }
+            cumulative[stages[i]][i + 1] += this.ends[i] - this.starts[i];
+        }
+    }
+
+    public static int stageOf(String type) {
+        return switch (type) {
+            case "deep" -> DEEP;
+            case "light" -> LIGHT;
+            case "rem" -> REM;
+            case "awake" -> AWAKE;
+            default -> UNMEASURABLE;
+        };
+    }
+
+    public static String name(int stage) {
+        return NAMES[stage];
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /** 第一個片段的開始時間；沒有片段時為 0。 */
+    public long start() {
+        return starts.length == 0 ? 0 : starts[0];
+    }
+
+    /** 最後一個片段的結束時間；沒有片段時為 0。 */
+    public long end() {
+        return ends.length == 0 ? 0 : ends[ends.length - 1];
+    }
+
+    public long startOf(int i) {
+        return starts[i];
+    }
+
+    public long endOf(int i) {
+        return ends[i];
+    }
+
+    public int stageOf(int i) {
+        return stages[i];
+    }
+
+    /** 時間點 t 所在片段的階段；落在空隙或整晚範圍外時回傳 -1。 */
+    public int stageAt(long t) {
+        int i = lastStartAtOrBefore(t);
+        return i >= 0 && t < ends[i] ? stages[i] : -1;
+    }
+
+    /** [from, to) 內屬於 stage 的秒數。 */
+    public long secondsIn(int stage, long from, long to) {
+        if (from >= to || starts.length == 0) {
+            return 0;
+        }
+        int first = firstEndAfter(from);
+        int last = lastStartAtOrBefore(to - 1);
+        if (first > last) {
+            return 0;
+        }
+        long seconds = cumulative[stage][last + 1] - cumulative[stage][first];
+        // 頭尾兩個片段只算落在區間內的部分
+        if (stages[first] == stage && starts[first] < from) {
+            seconds -= from - starts[first];
+        }
+        if (stages[last] == stage && ends[last] > to) {
+            seconds -= ends[last] - to;
+        }
+        return seconds;
+    }
+
+    /** 整晚屬於 stage 的秒數。 */
+    public long totalSeconds(int stage) {
+        return cumulative[stage][starts.length];
+    }
+
+    // 結束時間大於 t 的第一個片段；片段不重疊，ends 與 starts 同樣遞增
+    private int firstEndAfter(long t) {
+        int low = 0;
+        int high = ends.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] > t) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // 開始時間不晚於 t 的最後一個片段；沒有時回傳 -1
+    private int lastStartAtOrBefore(long t) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+}
@@ -0,0 +1,42 @@
+package com.jeffery.garmin_sleep.model;
+
+import lombok.Getter;
+
+/**
+ * 一晚組裝好的完整資料：summary、統計值、依開始時間排序的階段片段（平行陣列）與呼吸率序列。
+ * 由 NightViewCache 快取，供各個單晚 API 與 chatbot prompt 共用；載入後不再修改。
+ * version 為這份內容的版本（匯入時的內容雜湊），各 API 以它組成 ETag。
+ * hypnogram 由階段片段建立一次，時段查詢與 prompt 組裝共用。
+ */
+@Getter
+public class NightContext {
+
+    private final SleepSummary summary;
+    private final SleepNightStats stats;
+    private final String[] stageTypes;
+    private final long[] stageStarts;
+    private final long[] stageEnds;
+    private final RespirationSeries respiration;
+    private final String version;
+    private final Hypnogram hypnogram;
+
+    public NightContext(SleepSummary summary, SleepNightStats stats, String[] stageTypes, long[] stageStarts,
+                        long[] stageEnds, RespirationSeries respiration, String version) {
+        this.summary = summary;
+        this.stats = stats;
+        this.stageTypes = stageTypes;
+        this.stageStarts = stageStarts;
+        this.stageEnds = stageEnds;
+        this.respiration = respiration;
+        this.version = version;
+        this.hypnogram = new Hypnogram(stageTypes, stageStarts, stageEnds);
+    }
+
+    /**
+     * 單一 API 回應的 ETag，例如 W/"3f9a…-stages"。使用 weak ETag：同一內容可能以 gzip 或未壓縮送出，
+     * 而 Tomcat 不會壓縮帶 strong ETag 的回應。If-None-Match 採 weak 比對，舊的 strong 形式仍然相符。
+     */
+    public String etag(String part) {
+        return "W/\"" + version + "-" + part + "\"";
+    }
+}
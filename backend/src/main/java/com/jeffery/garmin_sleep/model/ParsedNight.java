@@ -0,0 +1,35 @@
+package com.jeffery.garmin_sleep.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一晚 Garmin 睡眠資料解析後的結果，階段與呼吸樣本以平行的 primitive 陣列保存，
+ * 陣列長度即為筆數。
+ */
+@Getter
+@AllArgsConstructor
+public class ParsedNight {
+
+    private final SleepSummary summary;
+
+    private final String[] stageTypes;
+    private final long[] stageStarts;
+    private final long[] stageEnds;
+
+    private final int[] respirationOffsets;
+    private final double[] respirationRates;
+
+    public int stageCount() {
+        return stageTypes.length;
+    }
+
+    public int respirationCount() {
+        return respirationOffsets.length;
+    }
+
+    /** sleep_summary 一筆加上所有子表資料列數。 */
+    public int rowCount() {
+        return 1 + stageCount() + respirationCount();
+    }
+}
@@ -0,0 +1,23 @@
+package com.jeffery.garmin_sleep.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+
+/**
+ * 一晚的呼吸率時間序列，offsets（距當天 00:00 的秒數，遞增）與 rates（bpm）為平行陣列。
+ */
+@Getter
+@AllArgsConstructor
+public class RespirationSeries {
+
+    private final String summaryId;
+    private final LocalDate date;
+    private final int[] offsets;
+    private final double[] rates;
+
+    public int size() {
+        return offsets.length;
+    }
+}
@@ -0,0 +1,58 @@
+package com.jeffery.garmin_sleep.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * 每晚的統計值，匯入時由 NightStatsCalculator 一次掃過原始資料算好，
+ * 摘要類的查詢與 chatbot prompt 直接讀這張表，不必再讀呼吸與階段的原始樣本。
+ */
+@Entity
+@Table(name = "sleep_night_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepNightStats {
+
+    @Id
+    @Column(name = "summary_id")
+    private String summaryId;
+
+    // 呼吸率（bpm）；百分位數精度為 0.1 bpm
+    private Integer respirationSamples;
+    private Double respirationMean;
+    private Double respirationMin;
+    private Double respirationMax;
+    @Column(name = "respiration_p10")
+    private Double respirationP10;
+    @Column(name = "respiration_p50")
+    private Double respirationP50;
+    @Column(name = "respiration_p90")
+    private Double respirationP90;
+
+    // 各階段的片段數與總秒數
+    private Integer deepSegments;
+    private Integer lightSegments;
+    private Integer remSegments;
+    private Integer awakeSegments;
+    private Integer deepSeconds;
+    private Integer lightSeconds;
+    private Integer remSeconds;
+    private Integer awakeSeconds;
+
+    private Integer longestDeepSeconds;
+    // 入睡後、最後一次醒來前的清醒片段數
+    private Integer awakenings;
+    // 第一個片段開始到最後一個片段結束
+    private Integer timeInBedSeconds;
+    // 睡眠時間（deep + light + rem）/ 在床時間
+    private Double sleepEfficiency;
+
+    @JsonIgnore
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "summary_id", insertable = false, updatable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private SleepSummary sleepSummary;
+}
@@ -3,8 +3,10 @@ package com.jeffery.garmin_sleep.model;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.LocalDate;
+
 @Entity
-@Table(name = "sleep_respiration")
+@Table(name = "sleep_respiration", indexes = @Index(name = "idx_respiration_summary_offset", columnList = "summary_id, offset_seconds"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -14,10 +16,14 @@ public class SleepRespiration {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // partition key（每月一個 partition），與所屬 sleep_summary 的 date 相同
+    @Column(name = "night_date", nullable = false)
+    private LocalDate nightDate;
+
     private Integer offsetSeconds;
     private Double respirationRate;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "summary_id") // <== 跟你資料表一致
     private SleepSummary sleepSummary;
 
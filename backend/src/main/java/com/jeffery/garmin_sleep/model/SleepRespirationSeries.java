@@ -0,0 +1,30 @@
+package com.jeffery.garmin_sleep.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * 一晚的呼吸率序列以單一壓縮 blob 保存（格式見 RespirationCodec），
+ * 取代 sleep_respiration 每個樣本一列的存法。
+ */
+@Entity
+@Table(name = "sleep_respiration_series")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SleepRespirationSeries {
+
+    @Id
+    @Column(name = "summary_id")
+    private String summaryId;
+
+    private Integer sampleCount;
+
+    private byte[] data;
+
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "summary_id", insertable = false, updatable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private SleepSummary sleepSummary;
+}
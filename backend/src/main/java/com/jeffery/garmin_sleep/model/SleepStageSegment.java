@@ -3,8 +3,10 @@ package com.jeffery.garmin_sleep.model;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.LocalDate;
+
 @Entity
-@Table(name = "sleep_stage_segments")
+@Table(name = "sleep_stage_segments", indexes = @Index(name = "idx_stage_summary_start", columnList = "summary_id, start_time"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -14,12 +16,16 @@ public class SleepStageSegment {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // partition key（每月一個 partition），與所屬 sleep_summary 的 date 相同
+    @Column(name = "night_date", nullable = false)
+    private LocalDate nightDate;
+
     private String stageType; // light, deep, rem
     private Long startTime;
     private Long endTime;
     private Integer duration;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "summary_id") // <== 跟你資料表一致
     private SleepSummary sleepSummary;
 
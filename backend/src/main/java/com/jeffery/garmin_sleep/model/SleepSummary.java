@@ -1,11 +1,18 @@
 package com.jeffery.garmin_sleep.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.jeffery.garmin_sleep.config.HibernateCacheConfig;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.time.LocalDate;
 
+// 匯入後幾乎只讀；匯入以 JDBC 寫入，失效見 SecondLevelCacheInvalidator
 @Entity
-@Table(name = "sleep_summary")
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE, region = HibernateCacheConfig.SUMMARY_REGION)
+@Table(name = "sleep_summary", indexes = @Index(name = "idx_summary_date_id", columnList = "date, summary_id"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -23,4 +30,9 @@ public class SleepSummary {
     private Integer awakeSleep;
     private Integer overallScore;
     private String scoreQualifier;
+
+    // 匯入內容的 SHA-256，重複上傳同一晚且內容未變時直接略過
+    @JsonIgnore
+    @Column(length = 64)
+    private String contentHash;
 }
@@ -0,0 +1,168 @@
+package com.jeffery.garmin_sleep.model;
+
+import com.jeffery.garmin_sleep.dto.UploadJobStatus;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次 CSV 上傳的處理進度。由多個 ingest worker 同時更新，輪詢端隨時可以取 snapshot。
+ */
+@Getter
+public class UploadJob {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    public enum NightState { PARSED, WRITTEN, SKIPPED, FAILED }
+
+    private final String id;
+    private final String fileName;
+    private final String mode;
+    private final Instant submittedAt = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    private final AtomicInteger nightsParsed = new AtomicInteger();
+    private final AtomicInteger nightsWritten = new AtomicInteger();
+    private final AtomicInteger nightsSkipped = new AtomicInteger();
+    private final AtomicInteger nightsFailed = new AtomicInteger();
+    private final AtomicLong rowsParsed = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicInteger chunkSequence = new AtomicInteger();
+    private final Queue<UploadJobStatus.ChunkStats> chunks = new ConcurrentLinkedQueue<>();
+    // key 為 CSV 資料列序號（不含標題列）
+    private final Map<Integer, NightProgress> nights = new ConcurrentSkipListMap<>();
+
+    public UploadJob(String id, String fileName, String mode) {
+        this.id = id;
+        this.fileName = fileName;
+        this.mode = mode;
+    }
+
+    public void start() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    public void complete() {
+        finishedAt = Instant.now();
+        status = Status.COMPLETED;
+    }
+
+    public void fail(String message) {
+        error = message;
+        finishedAt = Instant.now();
+        status = Status.FAILED;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    public void nightParsed(int record, ParsedNight night) {
+        NightProgress progress = new NightProgress(night.getSummary().getSummaryId(),
+                night.getSummary().getDate().toString(), night.rowCount());
+        nights.put(record, progress);
+        nightsParsed.incrementAndGet();
+        rowsParsed.addAndGet(night.rowCount());
+    }
+
+    public void nightWritten(int record) {
+        NightProgress progress = nights.get(record);
+        progress.state = NightState.WRITTEN;
+        progress.rowsWritten = progress.rowsParsed;
+        nightsWritten.incrementAndGet();
+        rowsWritten.addAndGet(progress.rowsParsed);
+    }
+
+    public void nightSkipped(int record) {
+        nights.get(record).state = NightState.SKIPPED;
+        nightsSkipped.incrementAndGet();
+    }
+
+    /**
+     * 解析失敗或所在 chunk 寫入失敗。已解析的夜晚從 nightsParsed / rowsParsed 扣回，
+     * 使 nightsParsed（解析成功且未失敗）與 nightsFailed 互斥，兩者相加即為已讀取的夜晚數。
+     */
+    public void nightFailed(int record, String message) {
+        NightProgress progress = nights.get(record);
+        if (progress == null) {
+            progress = new NightProgress(null, null, 0);
+            nights.put(record, progress);
+        } else if (progress.state == NightState.PARSED) {
+            nightsParsed.decrementAndGet();
+            rowsParsed.addAndGet(-progress.rowsParsed);
+        }
+        progress.state = NightState.FAILED;
+        progress.error = message;
+        nightsFailed.incrementAndGet();
+    }
+
+    public void chunkWritten(int nightCount, int rows, long millis) {
+        chunks.add(new UploadJobStatus.ChunkStats(chunkSequence.getAndIncrement(), nightCount, rows, millis));
+    }
+
+    public UploadJobStatus toStatus(boolean includeNights) {
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long elapsedMillis = startedAt == null ? 0 : Duration.between(startedAt, end).toMillis();
+        long written = rowsWritten.get();
+
+        List<UploadJobStatus.NightStatus> nightStatuses = null;
+        if (includeNights) {
+            nightStatuses = new ArrayList<>(nights.size());
+            for (Map.Entry<Integer, NightProgress> e : nights.entrySet()) {
+                NightProgress p = e.getValue();
+                nightStatuses.add(new UploadJobStatus.NightStatus(e.getKey(), p.summaryId, p.date,
+                        p.state.name(), p.rowsParsed, p.rowsWritten, p.error));
+            }
+        }
+
+        return new UploadJobStatus(
+                id,
+                status.name(),
+                fileName,
+                mode,
+                submittedAt,
+                startedAt,
+                finishedAt,
+                nightsParsed.get(),
+                nightsWritten.get(),
+                nightsSkipped.get(),
+                nightsFailed.get(),
+                rowsParsed.get(),
+                written,
+                elapsedMillis,
+                elapsedMillis == 0 ? 0 : written * 1000.0 / elapsedMillis,
+                error,
+                new ArrayList<>(chunks),
+                nightStatuses
+        );
+    }
+
+    private static final class NightProgress {
+        final String summaryId;
+        final String date;
+        final int rowsParsed;
+        volatile int rowsWritten;
+        volatile NightState state = NightState.PARSED;
+        volatile String error;
+
+        NightProgress(String summaryId, String date, int rowsParsed) {
+            this.summaryId = summaryId;
+            this.date = date;
+            this.rowsParsed = rowsParsed;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.jeffery.garmin_sleep.repository;
+
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import com.jeffery.garmin_sleep.service.NightStatsCalculator;
+import com.jeffery.garmin_sleep.service.RespirationCodec;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import lombok.RequiredArgsConstructor;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * 以 JDBC batch 寫入整批夜晚資料，繞過 JPA 逐筆 save() 的 SELECT + INSERT 往返。
+ * 呼叫端負責交易邊界。
+ * sleep_stage_segments 與 sleep_respiration 依 night_date 每月一個 partition，寫入前先以 ensurePartitions 建好。
+ */
+@Repository
+@RequiredArgsConstructor
+public class SleepBatchWriter {
+
+    private static final String UPSERT_SUMMARY_SQL = """
+            INSERT INTO sleep_summary (summary_id, date, total_duration, deep_sleep, light_sleep,
+                                       rem_sleep, awake_sleep, overall_score, score_qualifier, content_hash)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (summary_id) DO UPDATE SET
+                date = EXCLUDED.date,
+                total_duration = EXCLUDED.total_duration,
+                deep_sleep = EXCLUDED.deep_sleep,
+                light_sleep = EXCLUDED.light_sleep,
+                rem_sleep = EXCLUDED.rem_sleep,
+                awake_sleep = EXCLUDED.awake_sleep,
+                overall_score = EXCLUDED.overall_score,
+                score_qualifier = EXCLUDED.score_qualifier,
+                content_hash = EXCLUDED.content_hash
+            """;
+
+    private static final String SELECT_HASHES_SQL =
+            "SELECT summary_id, content_hash FROM sleep_summary WHERE summary_id = ANY (?)";
+
+    private static final String DELETE_STAGES_SQL = "DELETE FROM sleep_stage_segments WHERE summary_id = ANY (?)";
+
+    private static final String DELETE_RESPIRATION_SQL = "DELETE FROM sleep_respiration WHERE summary_id = ANY (?)";
+
+    private static final String DELETE_SERIES_SQL = "DELETE FROM sleep_respiration_series WHERE summary_id = ANY (?)";
+
+    private static final String UPSERT_SERIES_SQL = """
+            INSERT INTO sleep_respiration_series (summary_id, sample_count, data) VALUES (?, ?, ?)
+            ON CONFLICT (summary_id) DO UPDATE SET sample_count = EXCLUDED.sample_count, data = EXCLUDED.data
+            """;
+
+    private static final String SELECT_SERIES_SQL =
+            "SELECT summary_id, data FROM sleep_respiration_series WHERE summary_id = ANY (?)";
+
+    private static final String SELECT_ROW_RESPIRATION_IDS_SQL =
+            "SELECT DISTINCT summary_id FROM sleep_respiration WHERE summary_id = ANY (?)";
+
+    private static final String UPSERT_STATS_SQL = """
+            INSERT INTO sleep_night_stats (summary_id, respiration_samples, respiration_mean, respiration_min,
+                                           respiration_max, respiration_p10, respiration_p50, respiration_p90,
+                                           deep_segments, light_segments, rem_segments, awake_segments,
+                                           deep_seconds, light_seconds, rem_seconds, awake_seconds,
+                                           longest_deep_seconds, awakenings, time_in_bed_seconds, sleep_efficiency)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (summary_id) DO UPDATE SET
+                respiration_samples = EXCLUDED.respiration_samples,
+                respiration_mean = EXCLUDED.respiration_mean,
+                respiration_min = EXCLUDED.respiration_min,
+                respiration_max = EXCLUDED.respiration_max,
+                respiration_p10 = EXCLUDED.respiration_p10,
+                respiration_p50 = EXCLUDED.respiration_p50,
+                respiration_p90 = EXCLUDED.respiration_p90,
+                deep_segments = EXCLUDED.deep_segments,
+                light_segments = EXCLUDED.light_segments,
+                rem_segments = EXCLUDED.rem_segments,
+                awake_segments = EXCLUDED.awake_segments,
+                deep_seconds = EXCLUDED.deep_seconds,
+                light_seconds = EXCLUDED.light_seconds,
+                rem_seconds = EXCLUDED.rem_seconds,
+                awake_seconds = EXCLUDED.awake_seconds,
+                longest_deep_seconds = EXCLUDED.longest_deep_seconds,
+                awakenings = EXCLUDED.awakenings,
+                time_in_bed_seconds = EXCLUDED.time_in_bed_seconds,
+                sleep_efficiency = EXCLUDED.sleep_efficiency
+            """;
+
+    private static final String INSERT_STAGE_SQL =
+            "INSERT INTO sleep_stage_segments (summary_id, night_date, stage_type, start_time, end_time, duration) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_RESPIRATION_SQL =
+            "INSERT INTO sleep_respiration (summary_id, night_date, offset_seconds, respiration_rate) VALUES (?, ?, ?, ?)";
+
+    // 函式定義於 V2__partition_child_tables.sql，V4 加上不取鎖的檢查
+    private static final String ENSURE_PARTITIONS_SQL = "SELECT ensure_sleep_partitions(?)";
+
+    // 與 ensure_sleep_partitions 的 pg_advisory_xact_lock 同一個 key，但為共享鎖
+    private static final String PARTITION_WRITE_LOCK_SQL =
+            "SELECT pg_advisory_xact_lock_shared(hashtext('ensure_sleep_partitions'))";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 確保這些日期所在月份的子表 partition 已存在。應在寫入的交易之外呼叫：
+     * 建立 partition 會鎖住整張父表，放在交易外只鎖到這個語句結束。
+     * 每次都詢問資料庫而不在記憶體記住已建立的月份，月份可能已被 DETACH 歸檔；partition 都在時函式不取鎖，成本只有一次查詢。
+     */
+    public void ensurePartitions(Collection<LocalDate> dates) {
+        Set<YearMonth> months = new TreeSet<>();
+        for (LocalDate date : dates) {
+            months.add(YearMonth.from(date));
+        }
+        for (YearMonth month : months) {
+            jdbcTemplate.query(ENSURE_PARTITIONS_SQL, rs -> null, Date.valueOf(month.atDay(1)));
+        }
+    }
+
+    /**
+     * 寫入交易的第一個語句。建立 partition 時會鎖住子表的父表並對 sleep_summary 取得 ShareRowExclusive 鎖（外鍵），
+     * 與已經 upsert summary、正要寫入子表的交易互相等待而 deadlock。寫入交易先取得共享的 advisory lock，
+     * 建立 partition 則需要獨佔的同一把鎖，兩者因此輪流進行；寫入交易之間不互相阻擋。
+     */
+    public void lockAgainstPartitionChanges() {
+        jdbcTemplate.query(PARTITION_WRITE_LOCK_SQL, rs -> null);
+    }
+
+    /** 一次查詢取回整批 summary_id 目前儲存的內容雜湊，不存在的 id 不會出現在結果中。 */
+    public Map<String, String> findContentHashes(Collection<String> summaryIds) {
+        Map<String, String> hashes = new HashMap<>();
+        if (summaryIds.isEmpty()) {
+            return hashes;
+        }
+        jdbcTemplate.query(SELECT_HASHES_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", summaryIds.toArray())),
+                (RowCallbackHandler) rs -> hashes.put(rs.getString(1), rs.getString(2)));
+        return hashes;
+    }
+
+    /** 以 set-based DELETE 清除這些夜晚的 stages 與 respiration（逐列與 blob 兩種存法），回傳刪除列數。 */
+    public int deleteChildren(Collection<String> summaryIds) {
+        if (summaryIds.isEmpty()) {
+            return 0;
+        }
+        Object[] ids = summaryIds.toArray();
+        int deleted = 0;
+        for (String sql : List.of(DELETE_STAGES_SQL, DELETE_RESPIRATION_SQL, DELETE_SERIES_SQL)) {
+            deleted += jdbcTemplate.update(sql, ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids)));
+        }
+        return deleted;
+    }
+
+    /**
+     * 同一批中若有重複的 summary_id 只保留最後一筆，
+     * 避免改寫成多列 INSERT 時 ON CONFLICT 觸碰同一列兩次。
+     * 依 summary_id 排序寫入，並行的交易會以相同順序取得列鎖而不會互相死結。
+     */
+    public int upsertSummaries(List<ParsedNight> nights) {
+        if (nights.isEmpty()) {
+            return 0;
+        }
+        Map<String, SleepSummary> latest = new TreeMap<>();
+        for (ParsedNight night : nights) {
+            latest.put(night.getSummary().getSummaryId(), night.getSummary());
+        }
+        List<SleepSummary> summaries = new ArrayList<>(latest.values());
+        jdbcTemplate.batchUpdate(UPSERT_SUMMARY_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                SleepSummary s = summaries.get(i);
+                ps.setString(1, s.getSummaryId());
+                ps.setDate(2, Date.valueOf(s.getDate()));
+                ps.setObject(3, s.getTotalDuration(), Types.INTEGER);
+                ps.setObject(4, s.getDeepSleep(), Types.INTEGER);
+                ps.setObject(5, s.getLightSleep(), Types.INTEGER);
+                ps.setObject(6, s.getRemSleep(), Types.INTEGER);
+                ps.setObject(7, s.getAwakeSleep(), Types.INTEGER);
+                ps.setObject(8, s.getOverallScore(), Types.INTEGER);
+                ps.setString(9, s.getScoreQualifier());
+                ps.setString(10, s.getContentHash());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return summaries.size();
+            }
+        });
+        return summaries.size();
+    }
+
+    public int insertStages(List<ParsedNight> nights) {
+        int total = nights.stream().mapToInt(ParsedNight::stageCount).sum();
+        if (total == 0) {
+            return 0;
+        }
+        jdbcTemplate.batchUpdate(INSERT_STAGE_SQL, new FlatteningSetter(nights, total) {
+            @Override
+            void setRow(PreparedStatement ps, ParsedNight night, int row) throws SQLException {
+                long start = night.getStageStarts()[row];
+                long end = night.getStageEnds()[row];
+                ps.setString(1, night.getSummary().getSummaryId());
+                ps.setDate(2, Date.valueOf(night.getSummary().getDate()));
+                ps.setString(3, night.getStageTypes()[row]);
+                ps.setLong(4, start);
+                ps.setLong(5, end);
+                ps.setInt(6, (int) (end - start));
+            }
+
+            @Override
+            int rowsOf(ParsedNight night) {
+                return night.stageCount();
+            }
+        });
+        return total;
+    }
+
+    public int insertRespiration(List<ParsedNight> nights) {
+        int total = nights.stream().mapToInt(ParsedNight::respirationCount).sum();
+        if (total == 0) {
+            return 0;
+        }
+        jdbcTemplate.batchUpdate(INSERT_RESPIRATION_SQL, new FlatteningSetter(nights, total) {
+            @Override
+            void setRow(PreparedStatement ps, ParsedNight night, int row) throws SQLException {
+                ps.setString(1, night.getSummary().getSummaryId());
+                ps.setDate(2, Date.valueOf(night.getSummary().getDate()));
+                ps.setInt(3, night.getRespirationOffsets()[row]);
+                ps.setDouble(4, night.getRespirationRates()[row]);
+            }
+
+            @Override
+            int rowsOf(ParsedNight night) {
+                return night.respirationCount();
+            }
+        });
+        return total;
+    }
+
+    /**
+     * 每晚的呼吸序列編碼成一個 blob 後 upsert，沒有呼吸資料的夜晚不寫入。
+     * 與 upsertSummaries 相同，重複的 summary_id 只保留最後一筆並依 id 排序。
+     */
+    public int upsertRespirationSeries(List<ParsedNight> nights) {
+        Map<String, ParsedNight> latest = new TreeMap<>();
+        for (ParsedNight night : nights) {
+            if (night.respirationCount() > 0) {
+                latest.put(night.getSummary().getSummaryId(), night);
+            }
+        }
+        if (latest.isEmpty()) {
+            return 0;
+        }
+        List<ParsedNight> series = new ArrayList<>(latest.values());
+        jdbcTemplate.batchUpdate(UPSERT_SERIES_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ParsedNight night = series.get(i);
+                ps.setString(1, night.getSummary().getSummaryId());
+                ps.setInt(2, night.respirationCount());
+                ps.setBytes(3, RespirationCodec.encode(night.getRespirationOffsets(), night.getRespirationRates()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return series.size();
+            }
+        });
+        return series.size();
+    }
+
+    /**
+     * APPEND 模式的 blob 存法：在既有資料後追加這次的呼吸樣本，與 stages 的追加一致。
+     * 已有 blob 的夜晚解碼後接上新樣本重新編碼（編碼時依 offset 排序，與逐列資料的讀取順序相同）；
+     * 仍是逐列存放（尚未遷移）的夜晚照舊追加逐列資料，否則新的 blob 會讓讀取端忽略既有的逐列樣本；
+     * 兩者皆無時寫入新的 blob。upsertSummaries 已鎖住這些夜晚的 summary 列，並行的追加因此會排隊。
+     * 回傳寫入的樣本數。
+     */
+    public int appendRespirationSeries(List<ParsedNight> nights) {
+        Map<String, List<ParsedNight>> byId = new TreeMap<>();
+        for (ParsedNight night : nights) {
+            if (night.respirationCount() > 0) {
+                byId.computeIfAbsent(night.getSummary().getSummaryId(), id -> new ArrayList<>()).add(night);
+            }
+        }
+        if (byId.isEmpty()) {
+            return 0;
+        }
+        Object[] ids = byId.keySet().toArray();
+        Map<String, byte[]> existing = new HashMap<>();
+        jdbcTemplate.query(SELECT_SERIES_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids)),
+                (RowCallbackHandler) rs -> existing.put(rs.getString(1), rs.getBytes(2)));
+        Set<String> rowIds = new HashSet<>();
+        jdbcTemplate.query(SELECT_ROW_RESPIRATION_IDS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids)),
+                (RowCallbackHandler) rs -> rowIds.add(rs.getString(1)));
+
+        List<ParsedNight> rowNights = new ArrayList<>();
+        List<String> seriesIds = new ArrayList<>();
+        List<int[]> seriesOffsets = new ArrayList<>();
+        List<double[]> seriesRates = new ArrayList<>();
+        int written = 0;
+        for (Map.Entry<String, List<ParsedNight>> e : byId.entrySet()) {
+            if (!existing.containsKey(e.getKey()) && rowIds.contains(e.getKey())) {
+                rowNights.addAll(e.getValue());
+                continue;
+            }
+            int[] offsets = new int[0];
+            double[] rates = new double[0];
+            if (existing.containsKey(e.getKey())) {
+                RespirationSeries current = RespirationCodec.decode(e.getKey(),
+                        e.getValue().get(0).getSummary().getDate(), existing.get(e.getKey()));
+                offsets = current.getOffsets();
+                rates = current.getRates();
+            }
+            for (ParsedNight night : e.getValue()) {
+                int n = offsets.length;
+                offsets = Arrays.copyOf(offsets, n + night.respirationCount());
+                rates = Arrays.copyOf(rates, n + night.respirationCount());
+                System.arraycopy(night.getRespirationOffsets(), 0, offsets, n, night.respirationCount());
+                System.arraycopy(night.getRespirationRates(), 0, rates, n, night.respirationCount());
+                written += night.respirationCount();
+            }
+            seriesIds.add(e.getKey());
+            seriesOffsets.add(offsets);
+            seriesRates.add(rates);
+        }
+
+        written += insertRespiration(rowNights);
+        if (!seriesIds.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_SERIES_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setString(1, seriesIds.get(i));
+                    ps.setInt(2, seriesOffsets.get(i).length);
+                    ps.setBytes(3, RespirationCodec.encode(seriesOffsets.get(i), seriesRates.get(i)));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return seriesIds.size();
+                }
+            });
+        }
+        return written;
+    }
+
+    /**
+     * 計算並 upsert 每晚的統計值。APPEND 模式會在既有的 stages 與呼吸資料（逐列或 blob）後追加，
+     * 統計值仍只反映這次上傳的內容，之後以 UPSERT 重新匯入即會與子表一致。
+     */
+    public int upsertNightStats(List<ParsedNight> nights) {
+        Map<String, SleepNightStats> latest = new TreeMap<>();
+        for (ParsedNight night : nights) {
+            latest.put(night.getSummary().getSummaryId(), NightStatsCalculator.compute(night.getSummary().getSummaryId(),
+                    night.getStageTypes(), night.getStageStarts(), night.getStageEnds(), night.getRespirationRates()));
+        }
+        if (latest.isEmpty()) {
+            return 0;
+        }
+        List<SleepNightStats> stats = new ArrayList<>(latest.values());
+        jdbcTemplate.batchUpdate(UPSERT_STATS_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                SleepNightStats s = stats.get(i);
+                ps.setString(1, s.getSummaryId());
+                ps.setObject(2, s.getRespirationSamples(), Types.INTEGER);
+                ps.setObject(3, s.getRespirationMean(), Types.DOUBLE);
+                ps.setObject(4, s.getRespirationMin(), Types.DOUBLE);
+                ps.setObject(5, s.getRespirationMax(), Types.DOUBLE);
+                ps.setObject(6, s.getRespirationP10(), Types.DOUBLE);
+                ps.setObject(7, s.getRespirationP50(), Types.DOUBLE);
+                ps.setObject(8, s.getRespirationP90(), Types.DOUBLE);
+                ps.setObject(9, s.getDeepSegments(), Types.INTEGER);
+                ps.setObject(10, s.getLightSegments(), Types.INTEGER);
+                ps.setObject(11, s.getRemSegments(), Types.INTEGER);
+                ps.setObject(12, s.getAwakeSegments(), Types.INTEGER);
+                ps.setObject(13, s.getDeepSeconds(), Types.INTEGER);
+                ps.setObject(14, s.getLightSeconds(), Types.INTEGER);
+                ps.setObject(15, s.getRemSeconds(), Types.INTEGER);
+                ps.setObject(16, s.getAwakeSeconds(), Types.INTEGER);
+                ps.setObject(17, s.getLongestDeepSeconds(), Types.INTEGER);
+                ps.setObject(18, s.getAwakenings(), Types.INTEGER);
+                ps.setObject(19, s.getTimeInBedSeconds(), Types.INTEGER);
+                ps.setObject(20, s.getSleepEfficiency(), Types.DOUBLE);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return stats.size();
+            }
+        });
+        return stats.size();
+    }
+
+    /**
+     * 把多晚的子資料攤平成單一 batch。JdbcTemplate 依序以 0..n-1 呼叫 setValues，
+     * 所以只需維護目前所在的夜晚與其內部列號。
+     */
+    private abstract static class FlatteningSetter implements BatchPreparedStatementSetter {
+        private final List<ParsedNight> nights;
+        private final int total;
+        private int nightIndex;
+        private int rowInNight;
+
+        FlatteningSetter(List<ParsedNight> nights, int total) {
+            this.nights = nights;
+            this.total = total;
+        }
+
+        abstract void setRow(PreparedStatement ps, ParsedNight night, int row) throws SQLException;
+
+        abstract int rowsOf(ParsedNight night);
+
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+            while (rowInNight >= rowsOf(nights.get(nightIndex))) {
+                nightIndex++;
+                rowInNight = 0;
+            }
+            setRow(ps, nights.get(nightIndex), rowInNight++);
+        }
+
+        @Override
+        public int getBatchSize() {
+            return total;
+        }
+    }
+}
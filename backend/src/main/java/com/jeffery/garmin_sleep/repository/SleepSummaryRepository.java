@@ -1,12 +1,26 @@
 package com.jeffery.garmin_sleep.repository;
 
 import com.jeffery.garmin_sleep.model.SleepSummary;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
 import java.time.LocalDate;
-import java.util.Optional;
 
+// 區間與 keyset 分頁查詢的結果放在 Hibernate 查詢快取，重新匯入時由 SecondLevelCacheInvalidator 清空
 public interface SleepSummaryRepository extends JpaRepository<SleepSummary, String> {
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     List<SleepSummary> findByDateBetween(LocalDate start, LocalDate end);
-    Optional<SleepSummary> findByDate(LocalDate date);
+
+    // keyset 分頁，依 (date, summary_id) 排序，走 idx_summary_date_id；date 為 NULL 的列無法當作 cursor，不列出
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    List<SleepSummary> findByDateNotNullOrderByDateAscSummaryIdAsc(Limit limit);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("select s from SleepSummary s where s.date > :date or (s.date = :date and s.summaryId > :summaryId) order by s.date, s.summaryId")
+    List<SleepSummary> findPageAfter(@Param("date") LocalDate date, @Param("summaryId") String summaryId, Limit limit);
 }
@@ -0,0 +1,97 @@
+package com.jeffery.garmin_sleep.service;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 逐欄寫出 CSV（RFC 4180）的精簡 writer，供大量資料匯出使用：數值直接寫入底層 Writer，
+ * 不像 CSVPrinter 需要把每列包成 Object[]。只有含逗號、引號或換行的字串才加上引號。
+ */
+public final class CsvWriter {
+
+    private final Writer out;
+    private boolean firstInRow = true;
+
+    public CsvWriter(Writer out) {
+        this.out = out;
+    }
+
+    public CsvWriter row(String... headers) throws IOException {
+        for (String header : headers) {
+            field(header);
+        }
+        return endRow();
+    }
+
+    /** null 寫成空欄位。 */
+    public CsvWriter field(String value) throws IOException {
+        separator();
+        if (value == null) {
+            return this;
+        }
+        if (needsQuotes(value)) {
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        } else {
+            out.write(value);
+        }
+        return this;
+    }
+
+    public CsvWriter field(long value) throws IOException {
+        separator();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /** SQL NULL（以 null 傳入）寫成空欄位。 */
+    public CsvWriter field(Integer value) throws IOException {
+        separator();
+        if (value != null) {
+            out.write(Integer.toString(value));
+        }
+        return this;
+    }
+
+    /** 固定寫到小數第二位，例如 14.5 寫成 14.50；呼吸率的儲存精度即為 0.01。 */
+    public CsvWriter fieldCenti(double value) throws IOException {
+        separator();
+        long centi = Math.round(value * 100);
+        if (centi < 0) {
+            out.write('-');
+            centi = -centi;
+        }
+        out.write(Long.toString(centi / 100));
+        out.write('.');
+        long fraction = centi % 100;
+        if (fraction < 10) {
+            out.write('0');
+        }
+        out.write(Long.toString(fraction));
+        return this;
+    }
+
+    public CsvWriter endRow() throws IOException {
+        out.write("\r\n");
+        firstInRow = true;
+        return this;
+    }
+
+    private void separator() throws IOException {
+        if (!firstInRow) {
+            out.write(',');
+        }
+        firstInRow = false;
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
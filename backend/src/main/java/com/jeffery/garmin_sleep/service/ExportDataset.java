@@ -0,0 +1,20 @@
+package com.jeffery.garmin_sleep.service;
+
+/**
+ * /api/export 可匯出的資料，各自為一個 CSV；檔名前綴與欄位見 {@link SleepExportService}。
+ */
+public enum ExportDataset {
+    SUMMARY("sleep-summary"),
+    STAGES("sleep-stages"),
+    RESPIRATION("sleep-respiration");
+
+    private final String fileName;
+
+    ExportDataset(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,249 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * 以 Jackson streaming API 解析 Garmin 匯出 CSV 中 data 欄位的 JSON，
+ * 不建立 JsonNode 樹，只取出 sleep_summary / sleep_stage_segments / sleep_respiration 需要的欄位。
+ * 每次 parse 都使用獨立的 JsonParser，可在多執行緒間共用。
+ */
+public class GarminNightParser {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public ParsedNight parse(String json) throws IOException {
+        try (JsonParser p = jsonFactory.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("data 欄位不是 JSON 物件");
+            }
+            return readNight(p);
+        }
+    }
+
+    private ParsedNight readNight(JsonParser p) throws IOException {
+        String summaryId = null;
+        String calendarDate = null;
+        int duration = 0, deep = 0, light = 0, rem = 0, awake = 0, score = 0;
+        String qualifier = null;
+        StageBuffer stages = new StageBuffer();
+        RespirationBuffer respiration = new RespirationBuffer();
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "summaryId" -> summaryId = scalar(p, field).getValueAsString();
+                case "calendarDate" -> calendarDate = scalar(p, field).getValueAsString();
+                case "durationInSeconds" -> duration = scalar(p, field).getValueAsInt();
+                case "deepSleepDurationInSeconds" -> deep = scalar(p, field).getValueAsInt();
+                case "lightSleepDurationInSeconds" -> light = scalar(p, field).getValueAsInt();
+                case "remSleepInSeconds" -> rem = scalar(p, field).getValueAsInt();
+                case "awakeDurationInSeconds" -> awake = scalar(p, field).getValueAsInt();
+                case "overallSleepScore" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String scoreField = p.currentName();
+                            p.nextToken();
+                            if ("value".equals(scoreField)) {
+                                score = scalar(p, scoreField).getValueAsInt();
+                            } else if ("qualifierKey".equals(scoreField)) {
+                                qualifier = scalar(p, scoreField).getValueAsString();
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                case "sleepLevelsMap" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        readStages(p, stages);
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                case "timeOffsetSleepRespiration" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            int offset = Integer.parseInt(p.currentName());
+                            p.nextToken();
+                            respiration.add(offset, scalar(p, field).getValueAsDouble());
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+
+        if (p.currentToken() != JsonToken.END_OBJECT) {
+            throw new IOException("JSON 結構不符：" + p.currentToken());
+        }
+        if (summaryId == null || calendarDate == null) {
+            throw new IOException("缺少 summaryId 或 calendarDate");
+        }
+
+        SleepSummary summary = new SleepSummary(
+                summaryId,
+                LocalDate.parse(calendarDate),
+                duration,
+                deep,
+                light,
+                rem,
+                awake,
+                score,
+                qualifier,
+                null
+        );
+        ParsedNight night = new ParsedNight(
+                summary,
+                Arrays.copyOf(stages.types, stages.size),
+                Arrays.copyOf(stages.starts, stages.size),
+                Arrays.copyOf(stages.ends, stages.size),
+                Arrays.copyOf(respiration.offsets, respiration.size),
+                Arrays.copyOf(respiration.rates, respiration.size)
+        );
+        summary.setContentHash(contentHash(night));
+        return night;
+    }
+
+    /**
+     * 對實際會寫入資料庫的欄位計算 SHA-256，與 JSON 欄位順序或未使用的欄位無關。
+     * 字串先寫入位元組長度、可為 null 的欄位先寫入一個存在旗標，各段資料的邊界才不會互相混淆
+     * （例如 qualifier "AB" 加 stage "C" 與 qualifier "A" 加 stage "BC"）。
+     */
+    static String contentHash(ParsedNight night) {
+        MessageDigest digest = newSha256();
+        SleepSummary s = night.getSummary();
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        updateString(digest, buf, s.getSummaryId());
+        buf.clear().putLong(s.getDate().toEpochDay())
+                .putInt(s.getTotalDuration()).putInt(s.getDeepSleep()).putInt(s.getLightSleep())
+                .putInt(s.getRemSleep()).putInt(s.getAwakeSleep()).putInt(s.getOverallScore())
+                .putInt(night.stageCount()).putInt(night.respirationCount());
+        digest.update(buf.flip());
+        if (s.getScoreQualifier() == null) {
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) 1);
+            updateString(digest, buf, s.getScoreQualifier());
+        }
+        for (int i = 0; i < night.stageCount(); i++) {
+            updateString(digest, buf, night.getStageTypes()[i]);
+            buf.clear().putLong(night.getStageStarts()[i]).putLong(night.getStageEnds()[i]);
+            digest.update(buf.flip());
+        }
+        for (int i = 0; i < night.respirationCount(); i++) {
+            buf.clear().putInt(night.getRespirationOffsets()[i]).putDouble(night.getRespirationRates()[i]);
+            digest.update(buf.flip());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void updateString(MessageDigest digest, ByteBuffer buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.clear().putInt(bytes.length);
+        digest.update(buf.flip());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // sleepLevelsMap: { "deep": [ {startTimeInSeconds, endTimeInSeconds}, ... ], "light": [...], ... }
+    private void readStages(JsonParser p, StageBuffer stages) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String stageType = p.currentName();
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                p.skipChildren();
+                continue;
+            }
+            JsonToken element;
+            while ((element = p.nextToken()) != JsonToken.END_ARRAY) {
+                if (element != JsonToken.START_OBJECT) {
+                    throw new IOException("sleepLevelsMap." + stageType + " 的元素不是物件：" + element);
+                }
+                long start = 0, end = 0;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    p.nextToken();
+                    if ("startTimeInSeconds".equals(field)) {
+                        start = scalar(p, field).getValueAsLong();
+                    } else if ("endTimeInSeconds".equals(field)) {
+                        end = scalar(p, field).getValueAsLong();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                stages.add(stageType, start, end);
+            }
+        }
+    }
+
+    // 數值欄位若是物件或陣列，getValueAs* 不會跳過它，之後的欄位都會從錯誤的位置讀取
+    private static JsonParser scalar(JsonParser p, String field) throws IOException {
+        if (p.currentToken().isStructStart()) {
+            throw new IOException(field + " 應為單一值：" + p.currentToken());
+        }
+        return p;
+    }
+
+    private static final class StageBuffer {
+        String[] types = new String[INITIAL_CAPACITY];
+        long[] starts = new long[INITIAL_CAPACITY];
+        long[] ends = new long[INITIAL_CAPACITY];
+        int size;
+
+        void add(String type, long start, long end) {
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            types[size] = type;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+
+    private static final class RespirationBuffer {
+        int[] offsets = new int[INITIAL_CAPACITY * 8];
+        double[] rates = new double[INITIAL_CAPACITY * 8];
+        int size;
+
+        void add(int offset, double rate) {
+            if (size == offsets.length) {
+                int capacity = size * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                rates = Arrays.copyOf(rates, capacity);
+            }
+            offsets[size] = offset;
+            rates[size] = rate;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Gemini 回答快取，key 為完整 prompt 的 SHA-256：同一晚的資料與同一個問題得到同一個 key。
+ * 同一個 key 同時有多個請求時只有第一個會呼叫上游，其餘共用同一個 future。
+ * 上游失敗的 future 會被 Caffeine 自動移除，失敗結果不會被快取。
+ * 命中、未命中與淘汰次數以 cache.* 指標（cache=gemini.answers）發佈到 actuator。
+ */
+@Component
+public class GeminiAnswerCache {
+
+    public static final String CACHE_NAME = "gemini.answers";
+
+    private final AsyncCache<String, String> cache;
+
+    public GeminiAnswerCache(MeterRegistry meterRegistry,
+                             @Value("${gemini.cache.max-size:1000}") long maxSize,
+                             @Value("${gemini.cache.ttl:PT6H}") Duration ttl) {
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync(), CACHE_NAME);
+    }
+
+    /**
+     * 回傳快取中的回答；沒有時呼叫 upstream 並把它回傳的 future 放入快取。
+     * upstream 失敗時，這次及同時等待同一個 key 的呼叫端都會拿到同一個失敗的 future。
+     */
+    public CompletableFuture<String> get(String prompt, Supplier<CompletableFuture<String>> upstream) {
+        return cache.get(keyOf(prompt), (key, executor) -> {
+            try {
+                return upstream.get();
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
+
+    /** 已完成且成功的快取回答；沒有或仍在進行中時回傳 null。 */
+    public String getIfCompleted(String prompt) {
+        CompletableFuture<String> answer = cache.getIfPresent(keyOf(prompt));
+        if (answer == null || !answer.isDone() || answer.isCompletedExceptionally()) {
+            return null;
+        }
+        return answer.join();
+    }
+
+    /** 串流完成後把完整回答放入快取，之後的相同問題不必再呼叫上游。 */
+    public void put(String prompt, String answer) {
+        cache.put(keyOf(prompt), CompletableFuture.completedFuture(answer));
+    }
+
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    static String keyOf(String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(prompt.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
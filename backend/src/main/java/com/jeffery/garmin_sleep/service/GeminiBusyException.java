@@ -0,0 +1,11 @@
+package com.jeffery.garmin_sleep.service;
+
+/**
+ * 同時進行中的 Gemini 呼叫已達上限（gemini.max-concurrent），這次請求不排隊直接拒絕。
+ */
+public class GeminiBusyException extends RuntimeException {
+
+    public GeminiBusyException(int maxConcurrent) {
+        super("Gemini 同時請求數已達上限 " + maxConcurrent);
+    }
+}
@@ -1,136 +1,136 @@
 package com.jeffery.garmin_sleep.service;
 
 import com.jeffery.garmin_sleep.dto.ChatbotResponse;
-import com.jeffery.garmin_sleep.model.SleepRespiration;
-import com.jeffery.garmin_sleep.model.SleepStageSegment;
-import com.jeffery.garmin_sleep.model.SleepSummary;
-import com.jeffery.garmin_sleep.repository.*;
+import com.jeffery.garmin_sleep.model.NightContext;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.server.ResponseStatusException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.time.*;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class GeminiChatService {
 
-    private final SleepSummaryRepository summaryRepo;
-    private final SleepStageSegmentRepository stageRepo;
-    private final SleepRespirationRepository respirationRepo;
-
-    @Value("${GEMINI_URL}")
-    private String geminiUrl;
-
-    private final RestTemplate restTemplate = new RestTemplate();
-
-    public ChatbotResponse askGemini(LocalDate date, String question) {
-        SleepSummary summary = summaryRepo.findByDate(date)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "該日期無資料"));
-
-        List<SleepStageSegment> stages = stageRepo.findBySleepSummary_Date(date);
-        List<SleepRespiration> respiration = respirationRepo.findBySleepSummary_Date(date);
-
-        String prompt = buildPrompt(question,summary, stages, respiration);
-        String answer = callGeminiApi(prompt);
-
-        return new ChatbotResponse(answer, summary.getOverallScore());
+    private final SleepContextBuilder contextBuilder;
+    private final GeminiAnswerCache answerCache;
+    private final GeminiClient geminiClient;
+
+    /**
+     * prompt 由 {@link SleepContextBuilder} 以詢問日期往前數晚的資料組成。
+     * 資料庫查詢與 prompt 組裝在呼叫端執行緒完成，Gemini 呼叫則非同步進行，不佔住 Tomcat worker。
+     * 同時請求數超過上限時 future 以 503 失敗；其他上游錯誤仍以說明文字作為回答。
+     */
+    public CompletableFuture<ChatbotResponse> askGemini(LocalDate date, String question) {
+        NightPrompt nightPrompt = buildPrompt(date, question);
+        String prompt = nightPrompt.prompt;
+        return answerCache.get(prompt, () -> geminiClient.generate(prompt))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof GeminiBusyException) {
+                        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, cause.getMessage());
+                    }
+                    if (cause instanceof IllegalStateException) {
+                        log.warn("Gemini 回應格式錯誤：{}", cause.getMessage());
+                        return "Gemini 回應格式錯誤或無結果。";
+                    }
+                    log.error("Gemini API 失敗", cause);
+                    return "無法取得 Gemini 回應，請稍後再試。";
+                })
+                .thenApply(answer -> new ChatbotResponse(answer, nightPrompt.score));
     }
 
 
-    public String buildPrompt(String question, SleepSummary summary, List<SleepStageSegment> stages, List<SleepRespiration> respirationList) {
-        StringBuilder prompt = new StringBuilder();
-
-        // Prompt instructions (concise)
-        prompt.append("You are a sleep coach. Based on the user's question and data below, give a short and helpful answer.\n\n");
-        prompt.append("Question:\n\"").append(question).append("\"\n\n");
-
-        prompt.append("Respond in 3 short sections:\n");
-        prompt.append("1. Quick answer\n2. Sleep issues\n3. One or two practical suggestions\n");
-        prompt.append("Be brief and clear.\n\n");
-
-        // Sleep Summary
-        prompt.append("【Summary】\n");
-        if (summary != null) {
-            prompt.append("Date: ").append(summary.getDate()).append(", Total: ").append(summary.getTotalDuration()).append("s, Deep: ")
-                    .append(summary.getDeepSleep()).append("s, REM: ").append(summary.getRemSleep()).append("s, Awake: ")
-                    .append(summary.getAwakeSleep()).append("s, Score: ").append(summary.getOverallScore()).append(" (")
-                    .append(summary.getScoreQualifier()).append(")\n");
-        } else {
-            prompt.append("No summary.\n");
+    /**
+     * 以 SSE 串流回答：第一個事件為 score，之後每收到一段 Gemini 回答送出一個 chunk 事件，最後為 done。
+     * 上游失敗時送出 error 事件（status 503 代表同時請求數已達上限）後結束串流。
+     * 快取中已有完整回答時直接以單一 chunk 送出；串流成功結束後把完整回答放入快取。
+     * SSE 本身逾時或結束時取消上游串流，停住的上游不會一直佔著同時請求的名額。
+     */
+    public void streamAnswer(LocalDate date, String question, SseEmitter emitter) throws IOException {
+        NightPrompt nightPrompt = buildPrompt(date, question);
+        String prompt = nightPrompt.prompt;
+
+        emitter.send(SseEmitter.event().name("score").data(Map.of("score", nightPrompt.score)));
+
+        String cached = answerCache.getIfCompleted(prompt);
+        if (cached != null) {
+            emitter.send(SseEmitter.event().name("chunk").data(Map.of("text", cached)));
+            emitter.send(SseEmitter.event().name("done").data(Map.of()));
+            emitter.complete();
+            return;
         }
-        prompt.append("\n");
 
-        // Sleep Stages
-        prompt.append("【Stages】\n");
-        if (stages != null && !stages.isEmpty()) {
-            DateTimeFormatter tf = DateTimeFormatter.ofPattern("HH:mm");
-            for (int i = 0; i < Math.min(3, stages.size()); i++) {
-                SleepStageSegment s = stages.get(i);
-                prompt.append(s.getStageType()).append(" [").append(toTime(s.getStartTime(), tf)).append("~")
-                        .append(toTime(s.getEndTime(), tf)).append(", ").append(s.getDuration()).append("s] ");
+        StringBuilder answer = new StringBuilder();
+        CompletableFuture<Void> upstream = geminiClient.stream(prompt, text -> {
+            answer.append(text);
+            try {
+                emitter.send(SseEmitter.event().name("chunk").data(Map.of("text", text)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            prompt.append("...\n");
-        } else {
-            prompt.append("No stages.\n");
-        }
-        prompt.append("\n");
-
-        // Respiration
-        prompt.append("【Respiration】\n");
-        if (respirationList != null && !respirationList.isEmpty()) {
-            double avg = respirationList.stream().mapToDouble(SleepRespiration::getRespirationRate).average().orElse(0);
-            double min = respirationList.stream().mapToDouble(SleepRespiration::getRespirationRate).min().orElse(0);
-            double max = respirationList.stream().mapToDouble(SleepRespiration::getRespirationRate).max().orElse(0);
-            prompt.append(String.format("Avg: %.1f bpm, Range: %.1f~%.1f bpm\n", avg, min, max));
-        } else {
-            prompt.append("No respiration.\n");
-        }
-        prompt.append("\n");
-
-        return prompt.toString();
+        });
+        // SSE 逾時、出錯或結束時取消上游串流並釋放名額（已完成時 cancel 不會有作用）
+        emitter.onTimeout(() -> upstream.cancel(true));
+        emitter.onError(e -> upstream.cancel(true));
+        emitter.onCompletion(() -> upstream.cancel(true));
+        upstream.whenComplete((v, e) -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            try {
+                if (cause instanceof CancellationException) {
+                    // SSE 已結束（逾時或用戶端斷線），不再送出事件
+                    log.debug("SSE 已結束，取消 Gemini 串流");
+                    return;
+                } else if (cause == null) {
+                    answerCache.put(prompt, answer.toString());
+                    emitter.send(SseEmitter.event().name("done").data(Map.of()));
+                } else if (cause instanceof UncheckedIOException) {
+                    // 瀏覽器已斷線，上游串流已取消
+                    log.debug("SSE 用戶端已斷線：{}", cause.getMessage());
+                    return;
+                } else {
+                    int status = cause instanceof GeminiBusyException ? HttpStatus.SERVICE_UNAVAILABLE.value() : HttpStatus.BAD_GATEWAY.value();
+                    if (status != HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                        log.error("Gemini 串流失敗", cause);
+                    }
+                    emitter.send(SseEmitter.event().name("error")
+                            .data(Map.of("status", status, "message", "無法取得 Gemini 回應，請稍後再試。")));
+                }
+                emitter.complete();
+            } catch (IOException | IllegalStateException sendError) {
+                log.debug("SSE 結束事件無法送出：{}", sendError.getMessage());
+            }
+        });
     }
 
-    private String toTime(long epochSeconds, DateTimeFormatter formatter) {
-        LocalDateTime time = Instant.ofEpochSecond(epochSeconds).atZone(ZoneId.systemDefault()).toLocalDateTime();
-        return time.format(formatter);
+    private NightPrompt buildPrompt(LocalDate date, String question) {
+        List<NightContext> nights = contextBuilder.loadWindow(date);
+        NightContext target = nights.stream()
+                .filter(n -> n.getSummary().getDate().equals(date))
+                .reduce((first, second) -> second)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "該日期無資料"));
+        return new NightPrompt(contextBuilder.buildPrompt(question, date, nights), target.getSummary().getOverallScore());
     }
-    private String callGeminiApi(String prompt) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-
-        Map<String, Object> payload = Map.of(
-                "contents", List.of(
-                        Map.of("parts", List.of(Map.of("text", prompt)))
-                )
-        );
 
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(payload, headers);
+    private static final class NightPrompt {
+        final String prompt;
+        final Integer score;
 
-        try {
-            ResponseEntity<Map> response = restTemplate.postForEntity(geminiUrl, request, Map.class);
-            if (response.getStatusCode().is2xxSuccessful()) {
-                // 根據 Gemini 回應格式提取文字
-                var candidates = (List<Map<String, Object>>) response.getBody().get("candidates");
-                if (candidates != null && !candidates.isEmpty()) {
-                    Map<String, Object> content = (Map<String, Object>) candidates.get(0).get("content");
-                    List<Map<String, String>> parts = (List<Map<String, String>>) content.get("parts");
-                    return parts.get(0).get("text");
-                }
-            }
-            return "Gemini 回應格式錯誤或無結果。";
-        } catch (Exception e) {
-            log.error("Gemini API 失敗", e);
-            return "無法取得 Gemini 回應，請稍後再試。";
+        NightPrompt(String prompt, Integer score) {
+            this.prompt = prompt;
+            this.score = score;
         }
     }
 }
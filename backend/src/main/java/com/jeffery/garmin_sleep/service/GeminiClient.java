@@ -0,0 +1,319 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Gemini generateContent / streamGenerateContent 的非阻塞 client，以 JDK HttpClient（共用連線池）送出請求。
+ * <ul>
+ *   <li>connect-timeout / request-timeout 限制單次請求到收到回應標頭的時間；串流的回應本文另以 stream-timeout
+ *       限制整體時間，上游中途停住時取消串流並釋放名額</li>
+ *   <li>同時進行中的呼叫最多 max-concurrent 個，超過時立即以 GeminiBusyException 拒絕，不佔住呼叫端執行緒</li>
+ *   <li>429、5xx 與連線失敗以指數退避（含 jitter）重試 max-retries 次，有 Retry-After 時至少等那麼久</li>
+ * </ul>
+ * 指標：gemini.prompt.size（prompt 字元數）、gemini.upstream{mode,status}（每次上游請求到收到回應標頭／
+ * 串流結束的時間，重試各算一次）、gemini.rejected（超過同時請求上限被拒絕的次數）、gemini.permits.available。
+ */
+@Component
+@Slf4j
+public class GeminiClient {
+
+    // Retry-After 可能很長，超過這個值就不再等待
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(10);
+
+    private final ObjectMapper objectMapper;
+    private final URI endpoint;
+    private final URI streamEndpoint;
+    private final Duration requestTimeout;
+    private final Duration streamTimeout;
+    private final int maxConcurrent;
+    private final int maxRetries;
+    private final Duration retryBackoff;
+    private final Semaphore permits;
+    private final HttpClient httpClient;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary promptSize;
+    private final Counter rejected;
+
+    public GeminiClient(ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${GEMINI_URL}") String geminiUrl,
+                        @Value("${GEMINI_STREAM_URL}") String geminiStreamUrl,
+                        @Value("${gemini.connect-timeout:PT5S}") Duration connectTimeout,
+                        @Value("${gemini.request-timeout:PT25S}") Duration requestTimeout,
+                        @Value("${gemini.stream-timeout:PT60S}") Duration streamTimeout,
+                        @Value("${gemini.max-concurrent:8}") int maxConcurrent,
+                        @Value("${gemini.max-retries:2}") int maxRetries,
+                        @Value("${gemini.retry-backoff:PT0.5S}") Duration retryBackoff) {
+        this.objectMapper = objectMapper;
+        this.endpoint = URI.create(geminiUrl);
+        this.streamEndpoint = URI.create(geminiStreamUrl);
+        this.requestTimeout = requestTimeout;
+        this.streamTimeout = streamTimeout;
+        this.maxConcurrent = maxConcurrent;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.permits = new Semaphore(maxConcurrent);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .build();
+        this.meterRegistry = meterRegistry;
+        this.promptSize = DistributionSummary.builder("gemini.prompt.size")
+                .description("送往 Gemini 的 prompt 字元數")
+                .baseUnit("chars")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("gemini.rejected")
+                .description("超過同時請求上限而被拒絕的呼叫")
+                .register(meterRegistry);
+        Gauge.builder("gemini.permits.available", permits, Semaphore::availablePermits).register(meterRegistry);
+    }
+
+    /**
+     * 送出 prompt 並回傳第一個候選回答的文字。
+     * future 失敗時的原因：GeminiBusyException（超過同時請求上限）、GeminiUpstreamException（非 2xx 或重試用盡）、
+     * IllegalStateException（回應格式不符）或 IOException（逾時、連線失敗）。
+     */
+    public CompletableFuture<String> generate(String prompt) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new GeminiBusyException(maxConcurrent));
+        }
+        promptSize.record(prompt.length());
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(endpoint)
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(payload(prompt))))
+                    .build();
+        } catch (IOException e) {
+            permits.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(request, HttpResponse.BodyHandlers.ofByteArray(), "generate", 0)
+                .thenApply(this::extractText)
+                .whenComplete((text, e) -> permits.release());
+    }
+
+    /**
+     * 以 streamGenerateContent（SSE）送出 prompt，每收到一段回答文字就呼叫 onChunk（在 HttpClient 的執行緒上）。
+     * 回傳的 future 在串流結束時完成；重試只會發生在收到任何文字之前（429/5xx 於回應開頭就會知道）。
+     * onChunk 丟出例外（例如瀏覽器已斷線）時取消上游串流，future 以該例外失敗。
+     * 整個串流超過 stream-timeout 時 future 以 TimeoutException 失敗；呼叫端 cancel 這個 future 同樣會取消上游串流。
+     * 兩種情況都會立即釋放名額（HttpRequest 的 timeout 只涵蓋等待回應標頭，不限制本文）。
+     */
+    public CompletableFuture<Void> stream(String prompt, Consumer<String> onChunk) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new GeminiBusyException(maxConcurrent));
+        }
+        promptSize.record(prompt.length());
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(streamEndpoint)
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(payload(prompt))))
+                    .build();
+        } catch (IOException e) {
+            permits.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        // 完成（含 cancel）時 SseSubscriber 取消本文的訂閱，上游連線隨之關閉
+        CompletableFuture<Void> aborted = new CompletableFuture<>();
+        HttpResponse.BodyHandler<Void> handler = info -> info.statusCode() / 100 == 2
+                ? HttpResponse.BodySubscribers.fromLineSubscriber(new SseSubscriber(onChunk, aborted), s -> null,
+                        StandardCharsets.UTF_8, null)
+                : HttpResponse.BodySubscribers.replacing(null);
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable finish = () -> {
+            if (finished.compareAndSet(false, true)) {
+                aborted.cancel(false);
+                permits.release();
+            }
+        };
+        CompletableFuture<Void> result = send(request, handler, "stream", 0)
+                .<Void>thenApply(response -> null)
+                .applyToEither(aborted, v -> v)
+                .orTimeout(streamTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((v, e) -> finish.run());
+        // 呼叫端 cancel 回傳的 future 時，上面的 whenComplete 不會執行
+        result.whenComplete((v, e) -> finish.run());
+        return result;
+    }
+
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                        String mode, int attempt) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return httpClient.sendAsync(request, handler)
+                .handle((response, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    sample.stop(meterRegistry.timer("gemini.upstream", "mode", mode,
+                            "status", cause != null ? cause.getClass().getSimpleName() : String.valueOf(response.statusCode())));
+                    boolean retryable = cause != null ? cause instanceof ConnectException : isRetryable(response.statusCode());
+                    if (retryable && attempt < maxRetries) {
+                        Duration delay = retryDelay(response, attempt);
+                        log.warn("Gemini 請求失敗（{}），{} ms 後重試第 {} 次",
+                                cause != null ? cause.toString() : "status " + response.statusCode(), delay.toMillis(), attempt + 1);
+                        return CompletableFuture.supplyAsync(() -> null,
+                                        CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS))
+                                .thenCompose(ignored -> send(request, handler, mode, attempt + 1));
+                    }
+                    if (cause != null) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                    }
+                    if (response.statusCode() / 100 != 2) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(
+                                new GeminiUpstreamException(response.statusCode(), attempt + 1));
+                    }
+                    return CompletableFuture.completedFuture(response);
+                })
+                .thenCompose(f -> f);
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status / 100 == 5;
+    }
+
+    private Duration retryDelay(HttpResponse<?> response, int attempt) {
+        long backoff = retryBackoff.toMillis() << attempt;
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        long retryAfter = response == null ? 0 : response.headers().firstValue("Retry-After")
+                .map(GeminiClient::parseSeconds).orElse(0L) * 1000;
+        return Duration.ofMillis(Math.min(Math.max(jittered, retryAfter), MAX_RETRY_DELAY.toMillis()));
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            // HTTP-date 格式的 Retry-After 不處理，退回一般的退避時間
+            return 0;
+        }
+    }
+
+    private static Map<String, Object> payload(String prompt) {
+        return Map.of("contents", List.of(Map.of("parts", List.of(Map.of("text", prompt)))));
+    }
+
+    // 一個 SSE 事件的 data 為一個 GenerateContentResponse，回答文字可能分在多個 part
+    private String chunkText(String data) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (JsonNode part : objectMapper.readTree(data).path("candidates").path(0).path("content").path("parts")) {
+            text.append(part.path("text").asText(""));
+        }
+        return text.toString();
+    }
+
+    private String extractText(HttpResponse<byte[]> response) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // 根據 Gemini 回應格式提取文字
+        JsonNode text = root.path("candidates").path(0).path("content").path("parts").path(0).path("text");
+        if (!text.isTextual()) {
+            throw new IllegalStateException("status " + response.statusCode() + " 沒有候選回答");
+        }
+        return text.asText();
+    }
+
+    /**
+     * 逐行解析 text/event-stream：累積 data: 行，遇到空行即為一個事件。
+     */
+    private final class SseSubscriber implements Flow.Subscriber<String> {
+        private final Consumer<String> onChunk;
+        private final CompletableFuture<Void> aborted;
+        private final StringBuilder data = new StringBuilder();
+        private Flow.Subscription subscription;
+
+        SseSubscriber(Consumer<String> onChunk, CompletableFuture<Void> aborted) {
+            this.onChunk = onChunk;
+            this.aborted = aborted;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            aborted.whenComplete((v, e) -> subscription.cancel());
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (aborted.isDone()) {
+                return;
+            }
+            if (line.isEmpty()) {
+                dispatch();
+            } else if (line.startsWith("data:")) {
+                data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            aborted.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (!aborted.isDone()) {
+                dispatch();
+            }
+        }
+
+        private void dispatch() {
+            if (data.isEmpty()) {
+                return;
+            }
+            String event = data.toString();
+            data.setLength(0);
+            try {
+                String text = chunkText(event);
+                if (!text.isEmpty()) {
+                    onChunk.accept(text);
+                }
+            } catch (Exception e) {
+                subscription.cancel();
+                aborted.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.jeffery.garmin_sleep.service;
+
+import lombok.Getter;
+
+/**
+ * Gemini 回傳非 2xx，且已不再重試（不可重試的狀態碼或重試次數用盡）。
+ */
+@Getter
+public class GeminiUpstreamException extends RuntimeException {
+
+    private final int statusCode;
+
+    public GeminiUpstreamException(int statusCode, int attempts) {
+        super("Gemini 回應 status " + statusCode + "（共嘗試 " + attempts + " 次）");
+        this.statusCode = statusCode;
+    }
+}
@@ -0,0 +1,97 @@
+package com.jeffery.garmin_sleep.service;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * CSV 匯入各階段的指標：
+ * <ul>
+ *   <li>ingest.parse：每晚 JSON 解析（含轉成 ParsedNight 的 primitive 陣列）</li>
+ *   <li>ingest.diff：每個 chunk 查內容雜湊、找出有變動的夜晚</li>
+ *   <li>ingest.persist{table}：每個 chunk 對各資料表的 JDBC batch</li>
+ *   <li>ingest.chunk：每個 chunk 的整個交易（含提交）</li>
+ *   <li>ingest.rows.written（counter）與 ingest.rows.per.second（最近 10 秒的平均，gauge）</li>
+ * </ul>
+ */
+@Component
+public class IngestMetrics {
+
+    private static final int WINDOW_SECONDS = 10;
+
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+    private final Timer parseTimer;
+    private final Timer diffTimer;
+    private final Timer chunkTimer;
+    private final Counter rowsWritten;
+    private final Map<String, Timer> persistTimers = new ConcurrentHashMap<>();
+
+    // 以秒為單位的環狀視窗：slotSecond 記錄該格目前屬於哪一秒，slotRows 為該秒寫入的列數
+    private final AtomicLongArray slotSecond = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray slotRows = new AtomicLongArray(WINDOW_SECONDS);
+
+    public IngestMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.clock = meterRegistry.config().clock();
+        this.parseTimer = Timer.builder("ingest.parse").description("每晚 JSON 解析時間").register(meterRegistry);
+        this.diffTimer = Timer.builder("ingest.diff").description("每個 chunk 比對內容雜湊的時間").register(meterRegistry);
+        this.chunkTimer = Timer.builder("ingest.chunk").description("每個 chunk 的交易時間").register(meterRegistry);
+        this.rowsWritten = Counter.builder("ingest.rows.written").baseUnit("rows").register(meterRegistry);
+        Gauge.builder("ingest.rows.per.second", this, IngestMetrics::rowsPerSecond)
+                .description("最近 " + WINDOW_SECONDS + " 秒平均每秒寫入列數")
+                .baseUnit("rows")
+                .register(meterRegistry);
+    }
+
+    public void recordParse(long nanos) {
+        parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> T diff(Supplier<T> work) {
+        return diffTimer.record(work);
+    }
+
+    public <T> T chunk(Supplier<T> work) {
+        return chunkTimer.record(work);
+    }
+
+    public <T> T persist(String table, Supplier<T> work) {
+        return persistTimers.computeIfAbsent(table, t -> Timer.builder("ingest.persist")
+                .description("每個 chunk 對單一資料表的 batch 寫入時間")
+                .tag("table", t)
+                .register(meterRegistry)).record(work);
+    }
+
+    public void rowsWritten(long rows) {
+        rowsWritten.increment(rows);
+        long second = clock.wallTime() / 1000;
+        int slot = (int) (second % WINDOW_SECONDS);
+        long owner = slotSecond.get(slot);
+        if (owner != second && slotSecond.compareAndSet(slot, owner, second)) {
+            slotRows.set(slot, 0);
+        }
+        slotRows.addAndGet(slot, rows);
+    }
+
+    public double rowsPerSecond() {
+        long second = clock.wallTime() / 1000;
+        long rows = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (second - slotSecond.get(i) < WINDOW_SECONDS) {
+                rows += slotRows.get(i);
+            }
+        }
+        return rows / (double) WINDOW_SECONDS;
+    }
+}
@@ -0,0 +1,8 @@
+package com.jeffery.garmin_sleep.service;
+
+public enum IngestMode {
+    // 每次上傳都新增 stages / respiration（舊行為，重複上傳會累積重複資料）
+    APPEND,
+    // 以 summary_id 為鍵覆寫整晚資料，內容雜湊相同的夜晚直接略過
+    UPSERT
+}
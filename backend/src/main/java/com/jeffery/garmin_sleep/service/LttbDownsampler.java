@@ -0,0 +1,141 @@
+package com.jeffery.garmin_sleep.service;
+
+import java.util.Arrays;
+
+/**
+ * Largest-Triangle-Three-Buckets 降採樣，以串流方式處理跨多晚的呼吸率序列。
+ * 事先知道總樣本數，桶的邊界因此固定；只需暫存「目前的桶」與「下一桶」，
+ * 記憶體用量與單一桶大小成正比，與整段區間的樣本數無關。
+ * x 軸為 epochDay * 86400 + offsetSeconds，樣本必須依此遞增送入。
+ */
+public final class LttbDownsampler {
+
+    public interface Sink {
+        void accept(int epochDay, int offsetSeconds, double rate);
+    }
+
+    private final long total;
+    private final int threshold;
+    private final double every;
+    private final Sink sink;
+
+    private long index;
+    private int currentBucket;
+    private Buffer current = new Buffer();
+    private Buffer next = new Buffer();
+    // 上一個被選出的點
+    private double ax;
+    private double ay;
+
+    /**
+     * @param total     之後會送入的樣本總數
+     * @param threshold 輸出點數上限；total 不超過它時原樣輸出
+     */
+    public LttbDownsampler(long total, int threshold, Sink sink) {
+        this.total = total;
+        this.threshold = threshold;
+        this.every = threshold >= 3 ? (double) (total - 2) / (threshold - 2) : 0;
+        this.sink = sink;
+    }
+
+    public void add(int epochDay, int offsetSeconds, double rate) {
+        long i = index++;
+        if (total <= threshold || threshold < 3) {
+            sink.accept(epochDay, offsetSeconds, rate);
+            return;
+        }
+        if (i == 0) {
+            sink.accept(epochDay, offsetSeconds, rate);
+            ax = x(epochDay, offsetSeconds);
+            ay = rate;
+            return;
+        }
+        // 最後一點視為一個獨立的桶（threshold - 2），作為倒數第二桶選點時的參考
+        int bucket = i == total - 1 ? threshold - 2 : (int) Math.min((i - 1) / every, threshold - 3);
+        if (bucket == currentBucket + 2) {
+            selectFromCurrent();
+        }
+        (bucket == currentBucket ? current : next).add(epochDay, offsetSeconds, rate);
+    }
+
+    /** 送完所有樣本後呼叫，輸出最後兩個點。 */
+    public void finish() {
+        if (total <= threshold || threshold < 3 || index == 0) {
+            return;
+        }
+        if (current.size > 0) {
+            if (next.size > 0) {
+                selectFromCurrent();
+            } else {
+                // 樣本數少於宣告的 total 時，目前的桶沒有下一桶可參考，直接取最後一點
+                sink.accept(current.days[current.size - 1], current.offsets[current.size - 1], current.rates[current.size - 1]);
+                return;
+            }
+        }
+        for (int k = 0; k < current.size; k++) {
+            sink.accept(current.days[k], current.offsets[k], current.rates[k]);
+        }
+    }
+
+    // 以上一個選出的點與下一桶的平均點為底，取目前桶中三角形面積最大的點
+    private void selectFromCurrent() {
+        double cx = next.sumX / next.size;
+        double cy = next.sumY / next.size;
+        int best = 0;
+        double bestArea = -1;
+        for (int k = 0; k < current.size; k++) {
+            double area = Math.abs((ax - cx) * (current.rates[k] - ay)
+                    - (ax - current.x(k)) * (cy - ay));
+            if (area > bestArea) {
+                bestArea = area;
+                best = k;
+            }
+        }
+        sink.accept(current.days[best], current.offsets[best], current.rates[best]);
+        ax = current.x(best);
+        ay = current.rates[best];
+
+        Buffer reused = current;
+        reused.clear();
+        current = next;
+        next = reused;
+        currentBucket++;
+    }
+
+    private static double x(int epochDay, int offsetSeconds) {
+        return epochDay * 86400.0 + offsetSeconds;
+    }
+
+    private static final class Buffer {
+        int[] days = new int[64];
+        int[] offsets = new int[64];
+        double[] rates = new double[64];
+        int size;
+        double sumX;
+        double sumY;
+
+        void add(int epochDay, int offsetSeconds, double rate) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            days[size] = epochDay;
+            offsets[size] = offsetSeconds;
+            rates[size] = rate;
+            size++;
+            sumX += LttbDownsampler.x(epochDay, offsetSeconds);
+            sumY += rate;
+        }
+
+        double x(int k) {
+            return LttbDownsampler.x(days[k], offsets[k]);
+        }
+
+        void clear() {
+            size = 0;
+            sumX = 0;
+            sumY = 0;
+        }
+    }
+}
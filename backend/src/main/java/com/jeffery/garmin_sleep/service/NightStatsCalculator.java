@@ -0,0 +1,141 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 由一晚的原始階段與呼吸資料算出 SleepNightStats。
+ * 呼吸率只掃一次：平均、極值直接累加，百分位數以 0.1 bpm 為一格的直方圖取得，不需排序樣本。
+ */
+public final class NightStatsCalculator {
+
+    private static final double BIN_WIDTH = 0.1;
+    // 0 ~ 100 bpm，超出範圍的樣本歸入頭尾兩格
+    private static final int BINS = 1001;
+
+    private NightStatsCalculator() {
+    }
+
+    public static SleepNightStats compute(String summaryId, String[] stageTypes, long[] stageStarts, long[] stageEnds,
+                                          double[] rates) {
+        SleepNightStats stats = new SleepNightStats();
+        stats.setSummaryId(summaryId);
+        fillRespiration(stats, rates);
+        fillStages(stats, stageTypes, stageStarts, stageEnds);
+        return stats;
+    }
+
+    private static void fillRespiration(SleepNightStats stats, double[] rates) {
+        stats.setRespirationSamples(rates.length);
+        if (rates.length == 0) {
+            return;
+        }
+        int[] histogram = new int[BINS];
+        double sum = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (double rate : rates) {
+            sum += rate;
+            min = Math.min(min, rate);
+            max = Math.max(max, rate);
+            histogram[Math.max(0, Math.min(BINS - 1, (int) Math.round(rate / BIN_WIDTH)))]++;
+        }
+        stats.setRespirationMean(sum / rates.length);
+        stats.setRespirationMin(min);
+        stats.setRespirationMax(max);
+        stats.setRespirationP10(percentile(histogram, rates.length, 0.10));
+        stats.setRespirationP50(percentile(histogram, rates.length, 0.50));
+        stats.setRespirationP90(percentile(histogram, rates.length, 0.90));
+    }
+
+    // nearest-rank：累計數第一次達到 ceil(p * n) 的那一格
+    private static double percentile(int[] histogram, int n, double p) {
+        int rank = Math.max(1, (int) Math.ceil(p * n));
+        int seen = 0;
+        for (int bin = 0; bin < histogram.length; bin++) {
+            seen += histogram[bin];
+            if (seen >= rank) {
+                return Math.round(bin * BIN_WIDTH * 10) / 10.0;
+            }
+        }
+        return (histogram.length - 1) * BIN_WIDTH;
+    }
+
+    private static void fillStages(SleepNightStats stats, String[] types, long[] starts, long[] ends) {
+        Integer[] order = new Integer[types.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> starts[i]));
+
+        int deepSegments = 0, lightSegments = 0, remSegments = 0, awakeSegments = 0;
+        long deep = 0, light = 0, rem = 0, awake = 0;
+        long longestDeep = 0, currentDeep = 0, currentDeepEnd = Long.MIN_VALUE;
+        long firstStart = Long.MAX_VALUE, lastEnd = Long.MIN_VALUE;
+        // 只有之後還有睡眠片段的清醒才算一次醒來，所以先暫存、遇到下一個睡眠片段時再計入
+        int awakenings = 0, pendingAwake = 0;
+        boolean asleepSeen = false;
+
+        for (int i : order) {
+            long duration = ends[i] - starts[i];
+            firstStart = Math.min(firstStart, starts[i]);
+            lastEnd = Math.max(lastEnd, ends[i]);
+            String type = types[i];
+            switch (type) {
+                case "deep" -> {
+                    deepSegments++;
+                    deep += duration;
+                    // 相鄰的 deep 片段視為同一段
+                    currentDeep = starts[i] == currentDeepEnd ? currentDeep + duration : duration;
+                    currentDeepEnd = ends[i];
+                    longestDeep = Math.max(longestDeep, currentDeep);
+                }
+                case "light" -> {
+                    lightSegments++;
+                    light += duration;
+                }
+                case "rem" -> {
+                    remSegments++;
+                    rem += duration;
+                }
+                case "awake" -> {
+                    awakeSegments++;
+                    awake += duration;
+                    if (asleepSeen) {
+                        pendingAwake++;
+                    }
+                }
+                default -> {
+                }
+            }
+            if (!"deep".equals(type)) {
+                currentDeepEnd = Long.MIN_VALUE;
+            }
+            if (isAsleep(type)) {
+                asleepSeen = true;
+                awakenings += pendingAwake;
+                pendingAwake = 0;
+            }
+        }
+
+        stats.setDeepSegments(deepSegments);
+        stats.setLightSegments(lightSegments);
+        stats.setRemSegments(remSegments);
+        stats.setAwakeSegments(awakeSegments);
+        stats.setDeepSeconds((int) deep);
+        stats.setLightSeconds((int) light);
+        stats.setRemSeconds((int) rem);
+        stats.setAwakeSeconds((int) awake);
+        stats.setLongestDeepSeconds((int) longestDeep);
+        stats.setAwakenings(awakenings);
+        if (types.length > 0) {
+            long inBed = lastEnd - firstStart;
+            stats.setTimeInBedSeconds((int) inBed);
+            stats.setSleepEfficiency(inBed > 0 ? (double) (deep + light + rem) / inBed : null);
+        }
+    }
+
+    private static boolean isAsleep(String type) {
+        return "deep".equals(type) || "light".equals(type) || "rem".equals(type);
+    }
+}
@@ -0,0 +1,281 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 以日期為 key 的單晚資料快取（read-through，依 max-size 淘汰）。已匯入的夜晚內容不會改變，
+ * 只有匯入流程覆寫某個 summary_id 時（{@link NightsWrittenEvent}）才會失效，
+ * 因此重複查看同一晚（儀表板、chatbot）不必再讀資料庫。查無資料的日期也會快取，新夜晚匯入時同樣失效。
+ * 多個日期一起查詢時（chatbot 的 window）只對未快取的日期發出一次批次查詢。
+ * 批次載入不像單一 key 的載入會與失效互斥，因此以 {@link #generation} 判斷載入期間是否有夜晚寫入，
+ * 有的話把這次放進快取的結果移除，避免寫入前讀到的舊資料（與舊 ETag）在失效之後才被放回快取。
+ * 命中率等指標以 cache.*（cache=night.views）發佈。
+ * 各單晚 API 以 {@link NightContext#etag} 回傳 ETag，瀏覽器帶 If-None-Match 重新驗證時得到 304。
+ */
+@Component
+@Slf4j
+public class NightViewCache {
+
+    public static final String CACHE_NAME = "night.views";
+
+    // 統計值上線前匯入的夜晚沒有 sleep_night_stats，載入時由階段與呼吸率補算
+    private static final String NIGHTS_SQL = """
+            SELECT ss.summary_id, ss.date, ss.total_duration, ss.deep_sleep, ss.light_sleep, ss.rem_sleep,
+                   ss.awake_sleep, ss.overall_score, ss.score_qualifier, ss.content_hash,
+                   ns.summary_id AS stats_id, ns.respiration_samples, ns.respiration_mean, ns.respiration_min,
+                   ns.respiration_max, ns.respiration_p10, ns.respiration_p50, ns.respiration_p90,
+                   ns.deep_segments, ns.light_segments, ns.rem_segments, ns.awake_segments,
+                   ns.deep_seconds, ns.light_seconds, ns.rem_seconds, ns.awake_seconds,
+                   ns.longest_deep_seconds, ns.awakenings, ns.time_in_bed_seconds, ns.sleep_efficiency,
+                   st.types, st.starts, st.ends
+            FROM sleep_summary ss
+            LEFT JOIN sleep_night_stats ns ON ns.summary_id = ss.summary_id
+            LEFT JOIN LATERAL (
+                SELECT array_agg(s.stage_type ORDER BY s.start_time) AS types,
+                       array_agg(s.start_time ORDER BY s.start_time) AS starts,
+                       array_agg(s.end_time ORDER BY s.start_time) AS ends
+                FROM sleep_stage_segments s WHERE s.summary_id = ss.summary_id AND s.night_date = ss.date
+            ) st ON true
+            WHERE ss.date = ANY (?)
+            ORDER BY ss.date, ss.summary_id
+            """;
+
+    private static final String SERIES_SQL = """
+            SELECT summary_id, data FROM sleep_respiration_series WHERE summary_id = ANY (?)
+            """;
+
+    // 尚未遷移成 blob 的夜晚
+    private static final String ROWS_SQL = """
+            SELECT summary_id, offset_seconds, respiration_rate FROM sleep_respiration
+            WHERE summary_id = ANY (?) AND night_date = ANY (?)
+            ORDER BY summary_id, offset_seconds
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Timer loadTimer;
+    private final LoadingCache<LocalDate, Optional<NightContext>> cache;
+    private final CacheControl cacheControl;
+    // 每次夜晚寫入後遞增（在失效之前），批次載入以此判斷結果是否可能已過期
+    private final AtomicLong generation = new AtomicLong();
+
+    public NightViewCache(JdbcTemplate jdbcTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${night-cache.max-size:2000}") long maxSize,
+                          @Value("${night-cache.max-age:PT0S}") Duration maxAge) {
+        this.jdbcTemplate = jdbcTemplate;
+        // 預設 max-age=0：瀏覽器每次都帶 ETag 重新驗證，資料重新上傳後不會看到舊內容
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePrivate().mustRevalidate();
+        this.loadTimer = meterRegistry.timer("sleep.query", "query", "night-views");
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build(date -> loadTimer.record(() -> loadNights(Set.of(date))).get(date)), CACHE_NAME);
+    }
+
+    public CacheControl getCacheControl() {
+        return cacheControl;
+    }
+
+    public Optional<NightContext> find(LocalDate date) {
+        return cache.get(date);
+    }
+
+    /** 多個日期的資料，依日期由舊到新；沒有資料的日期略過。 */
+    public List<NightContext> findAll(Collection<LocalDate> dates) {
+        Map<LocalDate, Optional<NightContext>> found = new HashMap<>(cache.getAllPresent(dates));
+        Set<LocalDate> missing = new HashSet<>(dates);
+        missing.removeAll(found.keySet());
+        if (!missing.isEmpty()) {
+            long loadedAt = generation.get();
+            Map<LocalDate, Optional<NightContext>> loaded = loadTimer.record(() -> loadNights(missing));
+            // 已有其他請求放入的值時沿用它
+            loaded.forEach((date, night) -> found.put(date,
+                    cache.asMap().merge(date, night, (cached, ignored) -> cached)));
+            // 先放進快取再檢查：寫入若發生在檢查之後，它的失效一定在放入之後，會把這些結果清掉
+            if (generation.get() != loadedAt) {
+                loaded.forEach(cache.asMap()::remove);
+            }
+        }
+        List<NightContext> nights = new ArrayList<>(dates.size());
+        found.values().forEach(night -> night.ifPresent(nights::add));
+        nights.sort(Comparator.comparing(n -> n.getSummary().getDate()));
+        return nights;
+    }
+
+    @EventListener
+    public void onNightsWritten(NightsWrittenEvent event) {
+        generation.incrementAndGet();
+        cache.invalidateAll(event.getDates());
+        // 重新上傳時日期可能改變，舊日期底下同一個 summary_id 的資料也要失效
+        Set<String> ids = new HashSet<>(event.getSummaryIds());
+        cache.asMap().entrySet().removeIf(e -> e.getValue()
+                .map(n -> ids.contains(n.getSummary().getSummaryId()))
+                .orElse(false));
+    }
+
+    private Map<LocalDate, Optional<NightContext>> loadNights(Set<? extends LocalDate> dates) {
+        Object[] sqlDates = dates.stream().map(java.sql.Date::valueOf).toArray();
+        List<NightRow> rows = jdbcTemplate.query(NIGHTS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("date", sqlDates)),
+                (rs, i) -> toRow(rs));
+
+        Map<String, RespirationSeries> respiration = loadRespiration(rows);
+
+        Map<LocalDate, Optional<NightContext>> result = new HashMap<>();
+        dates.forEach(date -> result.put(date, Optional.empty()));
+        // 同一天有多筆 summary 時以 summary_id 排序的最後一筆為準，與 findByDate 的單筆假設一致
+        for (NightRow row : rows) {
+            SleepSummary summary = row.summary;
+            RespirationSeries series = respiration.getOrDefault(summary.getSummaryId(),
+                    new RespirationSeries(summary.getSummaryId(), summary.getDate(), new int[0], new double[0]));
+            SleepNightStats stats = row.stats != null ? row.stats : NightStatsCalculator.compute(
+                    summary.getSummaryId(), row.types, row.starts, row.ends, series.getRates());
+            String version = summary.getContentHash() != null
+                    ? summary.getContentHash().substring(0, 16)
+                    // APPEND 模式匯入的夜晚沒有內容雜湊，以載入時的隨機值作為版本
+                    : HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong());
+            result.put(summary.getDate(), Optional.of(new NightContext(summary, stats,
+                    row.types, row.starts, row.ends, series, version)));
+        }
+        log.debug("載入 {} 個日期的單晚資料（{} 晚）", dates.size(), rows.size());
+        return result;
+    }
+
+    private Map<String, RespirationSeries> loadRespiration(List<NightRow> rows) {
+        Map<String, LocalDate> dateById = new HashMap<>();
+        rows.forEach(row -> dateById.put(row.summary.getSummaryId(), row.summary.getDate()));
+        Map<String, RespirationSeries> result = new HashMap<>();
+        if (dateById.isEmpty()) {
+            return result;
+        }
+
+        Object[] ids = dateById.keySet().toArray();
+        jdbcTemplate.query(SERIES_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids)),
+                (RowCallbackHandler) rs -> {
+                    String id = rs.getString("summary_id");
+                    result.put(id, RespirationCodec.decode(id, dateById.get(id), rs.getBytes("data")));
+                });
+
+        Object[] pending = dateById.keySet().stream().filter(id -> !result.containsKey(id)).toArray();
+        if (pending.length > 0) {
+            // 帶上日期讓查詢只掃相關月份的 partition
+            Object[] pendingDates = Arrays.stream(pending).map(id -> java.sql.Date.valueOf(dateById.get(id))).toArray();
+            Map<String, List<double[]>> samples = new HashMap<>();
+            jdbcTemplate.query(ROWS_SQL,
+                    ps -> {
+                        ps.setArray(1, ps.getConnection().createArrayOf("varchar", pending));
+                        ps.setArray(2, ps.getConnection().createArrayOf("date", pendingDates));
+                    },
+                    (RowCallbackHandler) rs -> samples.computeIfAbsent(rs.getString(1), id -> new ArrayList<>())
+                            .add(new double[]{rs.getInt(2), rs.getDouble(3)}));
+            samples.forEach((id, list) -> {
+                int[] offsets = new int[list.size()];
+                double[] rates = new double[list.size()];
+                for (int i = 0; i < list.size(); i++) {
+                    offsets[i] = (int) list.get(i)[0];
+                    rates[i] = list.get(i)[1];
+                }
+                result.put(id, new RespirationSeries(id, dateById.get(id), offsets, rates));
+            });
+        }
+        return result;
+    }
+
+    private static NightRow toRow(ResultSet rs) throws SQLException {
+        SleepSummary summary = new SleepSummary();
+        summary.setSummaryId(rs.getString("summary_id"));
+        summary.setDate(rs.getDate("date").toLocalDate());
+        summary.setTotalDuration(rs.getObject("total_duration", Integer.class));
+        summary.setDeepSleep(rs.getObject("deep_sleep", Integer.class));
+        summary.setLightSleep(rs.getObject("light_sleep", Integer.class));
+        summary.setRemSleep(rs.getObject("rem_sleep", Integer.class));
+        summary.setAwakeSleep(rs.getObject("awake_sleep", Integer.class));
+        summary.setOverallScore(rs.getObject("overall_score", Integer.class));
+        summary.setScoreQualifier(rs.getString("score_qualifier"));
+        summary.setContentHash(rs.getString("content_hash"));
+
+        SleepNightStats stats = null;
+        if (rs.getString("stats_id") != null) {
+            stats = new SleepNightStats();
+            stats.setSummaryId(summary.getSummaryId());
+            stats.setRespirationSamples(rs.getObject("respiration_samples", Integer.class));
+            stats.setRespirationMean(rs.getObject("respiration_mean", Double.class));
+            stats.setRespirationMin(rs.getObject("respiration_min", Double.class));
+            stats.setRespirationMax(rs.getObject("respiration_max", Double.class));
+            stats.setRespirationP10(rs.getObject("respiration_p10", Double.class));
+            stats.setRespirationP50(rs.getObject("respiration_p50", Double.class));
+            stats.setRespirationP90(rs.getObject("respiration_p90", Double.class));
+            stats.setDeepSegments(rs.getObject("deep_segments", Integer.class));
+            stats.setLightSegments(rs.getObject("light_segments", Integer.class));
+            stats.setRemSegments(rs.getObject("rem_segments", Integer.class));
+            stats.setAwakeSegments(rs.getObject("awake_segments", Integer.class));
+            stats.setDeepSeconds(rs.getObject("deep_seconds", Integer.class));
+            stats.setLightSeconds(rs.getObject("light_seconds", Integer.class));
+            stats.setRemSeconds(rs.getObject("rem_seconds", Integer.class));
+            stats.setAwakeSeconds(rs.getObject("awake_seconds", Integer.class));
+            stats.setLongestDeepSeconds(rs.getObject("longest_deep_seconds", Integer.class));
+            stats.setAwakenings(rs.getObject("awakenings", Integer.class));
+            stats.setTimeInBedSeconds(rs.getObject("time_in_bed_seconds", Integer.class));
+            stats.setSleepEfficiency(rs.getObject("sleep_efficiency", Double.class));
+        }
+
+        Array types = rs.getArray("types");
+        return new NightRow(summary, stats,
+                types == null ? new String[0] : (String[]) types.getArray(),
+                longs(rs.getArray("starts")), longs(rs.getArray("ends")));
+    }
+
+    private static long[] longs(Array array) throws SQLException {
+        if (array == null) {
+            return new long[0];
+        }
+        Object[] values = (Object[]) array.getArray();
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = ((Number) values[i]).longValue();
+        }
+        return result;
+    }
+
+    private static final class NightRow {
+        final SleepSummary summary;
+        final SleepNightStats stats;
+        final String[] types;
+        final long[] starts;
+        final long[] ends;
+
+        NightRow(SleepSummary summary, SleepNightStats stats, String[] types, long[] starts, long[] ends) {
+            this.summary = summary;
+            this.stats = stats;
+            this.types = types;
+            this.starts = starts;
+            this.ends = ends;
+        }
+    }
+}
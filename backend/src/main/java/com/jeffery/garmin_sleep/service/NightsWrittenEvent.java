@@ -0,0 +1,18 @@
+package com.jeffery.garmin_sleep.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * 匯入流程提交一個 chunk 後發出，列出這次實際寫入（新增或覆寫）的夜晚。
+ */
+@Getter
+@AllArgsConstructor
+public class NightsWrittenEvent {
+
+    private final Collection<String> summaryIds;
+    private final Collection<LocalDate> dates;
+}
@@ -0,0 +1,112 @@
+package com.jeffery.garmin_sleep.service;
+
+import java.util.Arrays;
+
+/**
+ * P² 串流分位數估計（Jain &amp; Chlamtac, 1985）：只保留 5 個標記，每加入一個樣本 O(1) 更新，
+ * 不保存樣本本身。前 5 個樣本之前回傳精確值。
+ */
+public final class P2Quantile {
+
+    private final double p;
+    private final double[] heights = new double[5];
+    private final double[] positions = new double[5];
+    private final double[] desired = new double[5];
+    private final double[] increments;
+    private int count;
+
+    public P2Quantile(double p) {
+        this.p = p;
+        this.increments = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+    }
+
+    private P2Quantile(P2Quantile other) {
+        this.p = other.p;
+        System.arraycopy(other.heights, 0, heights, 0, 5);
+        System.arraycopy(other.positions, 0, positions, 0, 5);
+        System.arraycopy(other.desired, 0, desired, 0, 5);
+        this.increments = other.increments;
+        this.count = other.count;
+    }
+
+    public P2Quantile copy() {
+        return new P2Quantile(this);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public void add(double x) {
+        if (count < 5) {
+            heights[count++] = x;
+            if (count == 5) {
+                Arrays.sort(heights);
+                for (int i = 0; i < 5; i++) {
+                    positions[i] = i + 1;
+                }
+                desired[0] = 1;
+                desired[1] = 1 + 2 * p;
+                desired[2] = 1 + 4 * p;
+                desired[3] = 3 + 2 * p;
+                desired[4] = 5;
+            }
+            return;
+        }
+        count++;
+
+        int k;
+        if (x < heights[0]) {
+            heights[0] = x;
+            k = 0;
+        } else if (x >= heights[4]) {
+            heights[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= heights[k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < 5; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            desired[i] += increments[i];
+        }
+
+        // 中間三個標記偏離理想位置超過 1 時往理想位置移一格，高度以拋物線（不單調時改線性）內插
+        for (int i = 1; i < 4; i++) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int sign = d > 0 ? 1 : -1;
+                double candidate = parabolic(i, sign);
+                if (heights[i - 1] < candidate && candidate < heights[i + 1]) {
+                    heights[i] = candidate;
+                } else {
+                    heights[i] = heights[i] + sign * (heights[i + sign] - heights[i]) / (positions[i + sign] - positions[i]);
+                }
+                positions[i] += sign;
+            }
+        }
+    }
+
+    /** 目前的估計值；沒有樣本時為 NaN。 */
+    public double value() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count < 5) {
+            double[] sorted = Arrays.copyOf(heights, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+        }
+        return heights[2];
+    }
+
+    private double parabolic(int i, int sign) {
+        return heights[i] + sign / (positions[i + 1] - positions[i - 1])
+                * ((positions[i] - positions[i - 1] + sign) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i])
+                + (positions[i + 1] - positions[i] - sign) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+    }
+}
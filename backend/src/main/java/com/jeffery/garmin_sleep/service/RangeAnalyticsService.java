@@ -0,0 +1,184 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.dto.SleepRangeResponse;
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import lombok.RequiredArgsConstructor;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多晚區間的趨勢資料：依日／週／月彙總的平均值與各階段分鐘數，
+ * 以及整段區間降採樣到指定點數的呼吸率曲線（同一次讀取也算出各桶的呼吸率平均）。
+ * 呼吸率先以一個便宜的查詢取得樣本總數（LTTB 需要事先知道），再依 (date, summary_id) 索引順序
+ * 逐晚串流讀取（blob 與尚未遷移的逐列資料皆可），邊讀邊送進 LTTB，回應大小與記憶體用量只與點數上限有關。
+ * 查詢的時間記在 sleep.query{query=range-buckets|range-respiration}（後者含樣本總數）。
+ */
+@Service
+@RequiredArgsConstructor
+public class RangeAnalyticsService {
+
+    // 階段分鐘數取自 sleep_summary；呼吸平均在串流讀取呼吸樣本時一併計算
+    private static final String BUCKETS_SQL = """
+            SELECT date_trunc(?, ss.date)::date AS bucket,
+                   count(*) AS nights,
+                   avg(ss.overall_score) AS avg_score,
+                   avg(ss.total_duration) / 60.0 AS avg_total_minutes,
+                   coalesce(sum(ss.deep_sleep), 0) / 60.0 AS deep_minutes,
+                   coalesce(sum(ss.light_sleep), 0) / 60.0 AS light_minutes,
+                   coalesce(sum(ss.rem_sleep), 0) / 60.0 AS rem_minutes,
+                   coalesce(sum(ss.awake_sleep), 0) / 60.0 AS awake_minutes
+            FROM sleep_summary ss
+            WHERE ss.date BETWEEN ? AND ?
+            GROUP BY 1
+            ORDER BY 1
+            """;
+
+    // blob 的 sample_count 加上尚未遷移的逐列樣本數；與下方串流讀取的資料一致
+    private static final String TOTAL_SQL = """
+            SELECT (SELECT coalesce(sum(s.sample_count), 0)
+                    FROM sleep_summary ss JOIN sleep_respiration_series s ON s.summary_id = ss.summary_id
+                    WHERE ss.date BETWEEN ? AND ?)
+                 + (SELECT count(*)
+                    FROM sleep_summary ss JOIN sleep_respiration r ON r.summary_id = ss.summary_id AND r.night_date = ss.date
+                    WHERE ss.date BETWEEN ? AND ? AND r.night_date BETWEEN ? AND ?
+                      AND NOT EXISTS (SELECT 1 FROM sleep_respiration_series s WHERE s.summary_id = ss.summary_id))
+            """;
+
+    // 每晚一列：blob，或尚未遷移的夜晚依 offset 排序的陣列。LATERAL 讓 PostgreSQL 依 idx_summary_date_id 的順序
+    // 逐晚取資料（逐列資料走 (summary_id, offset_seconds) 索引），不必先讀完整段區間再排序；沒有呼吸資料的夜晚略過
+    private static final String RESPIRATION_SQL = """
+            SELECT ss.date, ss.summary_id, resp.data, resp.offsets, resp.rates
+            FROM sleep_summary ss
+            CROSS JOIN LATERAL (
+                SELECT s.data, NULL::int[] AS offsets, NULL::float8[] AS rates
+                FROM sleep_respiration_series s WHERE s.summary_id = ss.summary_id
+                UNION ALL
+                SELECT NULL, array_agg(r.offset_seconds ORDER BY r.offset_seconds),
+                       array_agg(r.respiration_rate ORDER BY r.offset_seconds)
+                FROM sleep_respiration r
+                WHERE r.summary_id = ss.summary_id AND r.night_date = ss.date AND r.night_date BETWEEN ? AND ?
+                  AND NOT EXISTS (SELECT 1 FROM sleep_respiration_series s WHERE s.summary_id = ss.summary_id)
+                HAVING count(*) > 0
+            ) resp
+            WHERE ss.date BETWEEN ? AND ?
+            ORDER BY ss.date, ss.summary_id
+            """;
+
+    private static final int FETCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    // 交易內 PostgreSQL driver 才會以 cursor 分批取回，而不是一次載入整個結果；
+    // REPEATABLE READ 讓樣本總數與之後串流讀取的資料來自同一個 snapshot
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public SleepRangeResponse findRange(LocalDate startDate, LocalDate endDate, RangeBucket bucket, int points) {
+        List<SleepRangeResponse.Bucket> buckets = meterRegistry.timer("sleep.query", "query", "range-buckets")
+                .record(() -> jdbcTemplate.query(BUCKETS_SQL,
+                (rs, i) -> new SleepRangeResponse.Bucket(
+                        rs.getDate("bucket").toLocalDate().toString(),
+                        rs.getInt("nights"),
+                        nullableDouble(rs, "avg_score"),
+                        nullableDouble(rs, "avg_total_minutes"),
+                        null,
+                        rs.getDouble("deep_minutes"),
+                        rs.getDouble("light_minutes"),
+                        rs.getDouble("rem_minutes"),
+                        rs.getDouble("awake_minutes")),
+                bucket.getTruncField(), Date.valueOf(startDate), Date.valueOf(endDate)));
+
+        List<SleepRangeResponse.RespirationPoint> curve = new ArrayList<>(points);
+        Date start = Date.valueOf(startDate);
+        Date end = Date.valueOf(endDate);
+        RespirationHandler handler = meterRegistry.timer("sleep.query", "query", "range-respiration").record(() -> {
+            // 逐列呼吸資料依 night_date 分月存放，以常數區間讓規劃階段就排除其他月份
+            long total = jdbcTemplate.queryForObject(TOTAL_SQL, Long.class, start, end, start, end, start, end);
+            RespirationHandler h = new RespirationHandler(total, points, bucket, curve);
+            if (total > 0) {
+                jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(RESPIRATION_SQL);
+                    ps.setFetchSize(FETCH_SIZE);
+                    ps.setDate(1, start);
+                    ps.setDate(2, end);
+                    ps.setDate(3, start);
+                    ps.setDate(4, end);
+                    return ps;
+                }, h);
+            }
+            return h;
+        });
+        handler.finish();
+        for (SleepRangeResponse.Bucket b : buckets) {
+            double[] sum = handler.respirationByBucket.get(b.getStart());
+            if (sum != null && sum[1] > 0) {
+                b.setAvgRespiration(sum[0] / sum[1]);
+            }
+        }
+
+        return new SleepRangeResponse(startDate.toString(), endDate.toString(), bucket.name(), points,
+                handler.total, buckets, curve);
+    }
+
+    private static Double nullableDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static final class RespirationHandler implements RowCallbackHandler {
+        private final RangeBucket bucket;
+        // 桶起始日 -> {呼吸率總和, 樣本數}
+        private final Map<String, double[]> respirationByBucket = new HashMap<>();
+        private final LttbDownsampler downsampler;
+        private final long total;
+
+        RespirationHandler(long total, int points, RangeBucket bucket, List<SleepRangeResponse.RespirationPoint> curve) {
+            this.total = total;
+            this.bucket = bucket;
+            this.downsampler = new LttbDownsampler(total, points, (day, offset, rate) -> curve.add(
+                    new SleepRangeResponse.RespirationPoint(LocalDate.ofEpochDay(day).toString(), offset, rate)));
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            LocalDate date = rs.getDate("date").toLocalDate();
+            int epochDay = (int) date.toEpochDay();
+            double[] sum = respirationByBucket.computeIfAbsent(bucket.truncate(date).toString(), k -> new double[2]);
+            byte[] data = rs.getBytes("data");
+            if (data != null) {
+                RespirationSeries series = RespirationCodec.decode(rs.getString("summary_id"), date, data);
+                for (int i = 0; i < series.size(); i++) {
+                    downsampler.add(epochDay, series.getOffsets()[i], series.getRates()[i]);
+                    sum[0] += series.getRates()[i];
+                }
+                sum[1] += series.size();
+            } else {
+                Integer[] offsets = (Integer[]) rs.getArray("offsets").getArray();
+                Double[] rates = (Double[]) rs.getArray("rates").getArray();
+                for (int i = 0; i < offsets.length; i++) {
+                    downsampler.add(epochDay, offsets[i], rates[i]);
+                    sum[0] += rates[i];
+                }
+                sum[1] += offsets.length;
+            }
+        }
+
+        void finish() {
+            downsampler.finish();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.jeffery.garmin_sleep.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * 區間分析的彙總粒度，對應 PostgreSQL date_trunc 的欄位名稱（週以星期一為起點）。
+ */
+public enum RangeBucket {
+    DAY("day"),
+    WEEK("week"),
+    MONTH("month");
+
+    private final String truncField;
+
+    RangeBucket(String truncField) {
+        this.truncField = truncField;
+    }
+
+    public String getTruncField() {
+        return truncField;
+    }
+
+    /** 與 SQL 端 date_trunc 相同的桶起始日。 */
+    public LocalDate truncate(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> date.withDayOfMonth(1);
+        };
+    }
+}
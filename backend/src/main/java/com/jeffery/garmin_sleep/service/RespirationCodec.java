@@ -0,0 +1,167 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 一晚呼吸率序列的壓縮格式（sleep_respiration_series.data）：
+ * <pre>
+ * byte    版本（目前為 1）
+ * varint  原始（未壓縮）payload 長度
+ * deflate(payload)
+ *
+ * payload:
+ *   varint  樣本數 n
+ *   n 個 zigzag varint：第一個 offset，之後為與前一個 offset 的差（秒）
+ *   n 個 zigzag varint：第一個 rate，之後為與前一個 rate 的差，單位 0.01 bpm
+ * </pre>
+ * 編碼前會依 offset 排序；rate 量化到 0.01 bpm，Garmin 匯出的精度本來就不超過這個範圍。
+ */
+public final class RespirationCodec {
+
+    public static final byte VERSION = 1;
+    private static final double RATE_SCALE = 100.0;
+
+    private RespirationCodec() {
+    }
+
+    public static byte[] encode(int[] offsets, double[] rates) {
+        int n = offsets.length;
+        int[] order = sortedOrder(offsets);
+
+        byte[] payload = new byte[5 + n * 10];
+        int pos = writeVarint(payload, 0, n);
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            int offset = offsets[order[i]];
+            pos = writeVarint(payload, pos, zigzag(offset - previous));
+            previous = offset;
+        }
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            int quantized = (int) Math.round(rates[order[i]] * RATE_SCALE);
+            pos = writeVarint(payload, pos, zigzag(quantized - previous));
+            previous = quantized;
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(payload, 0, pos);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(pos / 2 + 16);
+            out.write(VERSION);
+            byte[] header = new byte[5];
+            out.write(header, 0, writeVarint(header, 0, pos));
+            byte[] buf = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** 解碼後直接寫入新的 primitive 陣列，不經過任何 boxing。 */
+    public static RespirationSeries decode(String summaryId, LocalDate date, byte[] data) {
+        if (data.length == 0 || data[0] != VERSION) {
+            throw new IllegalArgumentException("不支援的呼吸序列格式版本");
+        }
+        int[] cursor = {1};
+        int payloadLength = readVarint(data, cursor);
+        byte[] payload = new byte[payloadLength];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, cursor[0], data.length - cursor[0]);
+            int read = 0;
+            while (read < payloadLength) {
+                int count = inflater.inflate(payload, read, payloadLength - read);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalArgumentException("呼吸序列資料不完整");
+                }
+                read += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("呼吸序列資料損毀", e);
+        } finally {
+            inflater.end();
+        }
+
+        cursor[0] = 0;
+        int n = readVarint(payload, cursor);
+        int[] offsets = new int[n];
+        double[] rates = new double[n];
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += unzigzag(readVarint(payload, cursor));
+            offsets[i] = previous;
+        }
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += unzigzag(readVarint(payload, cursor));
+            rates[i] = previous / RATE_SCALE;
+        }
+        return new RespirationSeries(summaryId, date, offsets, rates);
+    }
+
+    private static int[] sortedOrder(int[] offsets) {
+        int n = offsets.length;
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) {
+            sorted = offsets[i - 1] <= offsets[i];
+        }
+        int[] order = new int[n];
+        if (sorted) {
+            Arrays.setAll(order, i -> i);
+            return order;
+        }
+        // (offset << 32 | index) 排序後取出 index，避免 Integer[] 與 Comparator
+        long[] keyed = new long[n];
+        for (int i = 0; i < n; i++) {
+            keyed[i] = ((long) offsets[i] << 32) | i;
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keyed[i];
+        }
+        return order;
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int writeVarint(byte[] buf, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] buf, int[] cursor) {
+        int pos = cursor[0];
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos++];
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        cursor[0] = pos;
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import com.jeffery.garmin_sleep.repository.SleepBatchWriter;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * 把既有 sleep_respiration 逐列資料轉成 sleep_respiration_series blob。
+ * 設定 respiration.migrate-on-startup=true 時於啟動後執行，每 batch-size 晚一個交易：
+ * 寫入 blob 並刪除原本的逐列資料。中途中斷後重新啟動會從尚未遷移的夜晚繼續。
+ * 每個 batch 提交後發出 {@link NightsWrittenEvent}，讓已快取的資料失效。
+ */
+@Component
+@ConditionalOnProperty(name = "respiration.migrate-on-startup", havingValue = "true")
+@Slf4j
+public class RespirationSeriesMigrator implements ApplicationRunner {
+
+    private static final String PENDING_SQL = """
+            SELECT DISTINCT summary_id FROM sleep_respiration
+            WHERE summary_id IS NOT NULL
+              AND summary_id NOT IN (SELECT summary_id FROM sleep_respiration_series)
+            ORDER BY summary_id
+            """;
+
+    private static final String ROWS_SQL = """
+            SELECT summary_id, offset_seconds, respiration_rate FROM sleep_respiration
+            WHERE summary_id = ANY (?)
+            ORDER BY summary_id, offset_seconds
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SleepBatchWriter batchWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public RespirationSeriesMigrator(JdbcTemplate jdbcTemplate,
+                                     SleepBatchWriter batchWriter,
+                                     PlatformTransactionManager transactionManager,
+                                     ApplicationEventPublisher eventPublisher,
+                                     @Value("${respiration.migrate-batch-size:100}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchWriter = batchWriter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> pending = jdbcTemplate.queryForList(PENDING_SQL, String.class);
+        log.info("呼吸序列遷移：{} 晚待轉換", pending.size());
+
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            List<String> ids = pending.subList(from, Math.min(from + batchSize, pending.size()));
+            transactionTemplate.executeWithoutResult(status -> migrateBatch(ids));
+            eventPublisher.publishEvent(new NightsWrittenEvent(List.copyOf(ids), List.of()));
+            log.info("呼吸序列遷移：{}/{} 晚", Math.min(from + batchSize, pending.size()), pending.size());
+        }
+    }
+
+    private void migrateBatch(List<String> ids) {
+        Map<String, SeriesBuilder> builders = new LinkedHashMap<>();
+        jdbcTemplate.query(ROWS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids.toArray())),
+                (RowCallbackHandler) rs -> builders
+                        .computeIfAbsent(rs.getString(1), id -> new SeriesBuilder())
+                        .add(rs.getInt(2), rs.getDouble(3)));
+
+        List<ParsedNight> nights = new ArrayList<>(builders.size());
+        builders.forEach((id, b) -> {
+            SleepSummary summary = new SleepSummary();
+            summary.setSummaryId(id);
+            nights.add(new ParsedNight(summary, new String[0], new long[0], new long[0],
+                    Arrays.copyOf(b.offsets, b.size), Arrays.copyOf(b.rates, b.size)));
+        });
+        batchWriter.upsertRespirationSeries(nights);
+        jdbcTemplate.update("DELETE FROM sleep_respiration WHERE summary_id = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids.toArray())));
+    }
+
+    private static final class SeriesBuilder {
+        int[] offsets = new int[512];
+        double[] rates = new double[512];
+        int size;
+
+        void add(int offset, double rate) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            offsets[size] = offset;
+            rates[size] = rate;
+            size++;
+        }
+    }
+}
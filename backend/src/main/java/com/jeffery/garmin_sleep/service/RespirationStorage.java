@@ -0,0 +1,8 @@
+package com.jeffery.garmin_sleep.service;
+
+public enum RespirationStorage {
+    // sleep_respiration：每個樣本一列
+    TABLE,
+    // sleep_respiration_series：每晚一個壓縮 blob
+    SERIES
+}
@@ -0,0 +1,98 @@
+package com.jeffery.garmin_sleep.service;
+
+/**
+ * 單一指標的串流統計：Welford 的全期平均與變異數、指數加權（EWMA）平均與變異數，
+ * 以及 P² 估計的 p10 / p50 / p90。每個新樣本 O(1) 更新，可複製一份作為 checkpoint。
+ */
+public final class RollingStat {
+
+    private final double alpha;
+    private long count;
+    private double mean;
+    private double m2;
+    private double ewma;
+    private double ewmVariance;
+    private final P2Quantile p10;
+    private final P2Quantile p50;
+    private final P2Quantile p90;
+
+    public RollingStat(double alpha) {
+        this.alpha = alpha;
+        this.p10 = new P2Quantile(0.1);
+        this.p50 = new P2Quantile(0.5);
+        this.p90 = new P2Quantile(0.9);
+    }
+
+    private RollingStat(RollingStat other) {
+        this.alpha = other.alpha;
+        this.count = other.count;
+        this.mean = other.mean;
+        this.m2 = other.m2;
+        this.ewma = other.ewma;
+        this.ewmVariance = other.ewmVariance;
+        this.p10 = other.p10.copy();
+        this.p50 = other.p50.copy();
+        this.p90 = other.p90.copy();
+    }
+
+    public RollingStat copy() {
+        return new RollingStat(this);
+    }
+
+    public void add(double x) {
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+
+        if (count == 1) {
+            ewma = x;
+        } else {
+            double diff = x - ewma;
+            double increment = alpha * diff;
+            ewma += increment;
+            ewmVariance = (1 - alpha) * (ewmVariance + diff * increment);
+        }
+
+        p10.add(x);
+        p50.add(x);
+        p90.add(x);
+    }
+
+    /** 以 EWMA 為基準的 z 分數；標準差至少為 minStdDev，避免資料幾乎不變時任何差異都被放大。 */
+    public double zScore(double x, double minStdDev) {
+        return (x - ewma) / Math.max(Math.sqrt(ewmVariance), minStdDev);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStdDev() {
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+    }
+
+    public double getEwma() {
+        return ewma;
+    }
+
+    public double getEwmStdDev() {
+        return Math.sqrt(ewmVariance);
+    }
+
+    public double getP10() {
+        return p10.value();
+    }
+
+    public double getP50() {
+        return p50.value();
+    }
+
+    public double getP90() {
+        return p90.value();
+    }
+}
@@ -0,0 +1,30 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.SleepSummary;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Cache;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * 匯入與遷移以 JDBC 直接寫入，Hibernate 不知道資料已變動。
+ * 收到 {@link NightsWrittenEvent} 時清掉這些夜晚的實體快取，並清空查詢快取
+ * （查詢快取的過期判斷依賴 Hibernate 自己記錄的資料表更新時間，JDBC 寫入不會更新它）。
+ */
+@Component
+@RequiredArgsConstructor
+public class SecondLevelCacheInvalidator {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    @EventListener
+    public void onNightsWritten(NightsWrittenEvent event) {
+        Cache cache = entityManagerFactory.unwrap(org.hibernate.SessionFactory.class).getCache();
+        for (String summaryId : event.getSummaryIds()) {
+            cache.evictEntityData(SleepSummary.class, summaryId);
+        }
+        cache.evictQueryRegions();
+    }
+}
@@ -0,0 +1,221 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.dto.SleepAnomaly;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 每晚與個人基準（{@link SleepBaseline}）比較的異常標記。基準只保存在記憶體：
+ * 啟動後依日期順序掃過全部歷史一次建立，之後新上傳的夜晚都在基準之後時只把它們併入（O(1)/晚）。
+ * 每 checkpoint-every 晚保存一份基準副本；補傳或重新上傳較早的夜晚時，
+ * 從該日期之前最近的 checkpoint 重新計算之後的夜晚，不必從頭掃描。
+ * {@link NightsWrittenEvent} 在匯入的執行緒上只記下最早的日期（不取得 this、不查資料庫），
+ * 讀取資料庫與重新計算都延到下一次查詢時進行，一次上傳的多個 chunk 因此只會處理一次。
+ * 掃描歷史的時間記在 sleep.query{query=baseline-history}。
+ */
+@Service
+@Slf4j
+public class SleepAnomalyService {
+
+    private static final String NIGHT_COLUMNS = """
+            SELECT ss.date, ss.summary_id, ss.overall_score, ss.deep_sleep, ss.light_sleep, ss.rem_sleep,
+                   ns.respiration_mean
+            FROM sleep_summary ss
+            LEFT JOIN sleep_night_stats ns ON ns.summary_id = ss.summary_id
+            """;
+
+    private static final String HISTORY_SQL = NIGHT_COLUMNS + """
+            WHERE ss.date > ?
+            ORDER BY ss.date, ss.summary_id
+            """;
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Timer historyTimer;
+    private final double alpha;
+    private final double zThreshold;
+    private final int minNights;
+    private final int checkpointEvery;
+
+    // 從這一天起的夜晚已寫入但尚未併入基準；null 代表基準與資料庫一致。由匯入執行緒更新，不需要 this
+    private final AtomicReference<LocalDate> dirtyFrom = new AtomicReference<>(LocalDate.MIN);
+
+    // 以下狀態都由 this 保護，只在查詢時更新
+    private SleepBaseline baseline;
+    // 基準已涵蓋到哪一天（含）
+    private LocalDate watermark = LocalDate.MIN;
+    // 日期 -> 涵蓋到該日（含）為止的基準副本
+    private final TreeMap<LocalDate, SleepBaseline> checkpoints = new TreeMap<>();
+    private final TreeMap<LocalDate, List<SleepAnomaly>> anomalies = new TreeMap<>();
+    private int sinceCheckpoint;
+
+    public SleepAnomalyService(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${anomaly.ewma-alpha:0.1}") double alpha,
+                               @Value("${anomaly.z-threshold:2.5}") double zThreshold,
+                               @Value("${anomaly.min-nights:14}") int minNights,
+                               @Value("${anomaly.checkpoint-every:30}") int checkpointEvery) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.historyTimer = meterRegistry.timer("sleep.query", "query", "baseline-history");
+        this.alpha = alpha;
+        this.zThreshold = zThreshold;
+        this.minNights = minNights;
+        this.checkpointEvery = checkpointEvery;
+        this.baseline = newBaseline();
+    }
+
+    /** 區間內（含兩端，null 代表不限）被標記的夜晚，依日期由舊到新。 */
+    public synchronized List<SleepAnomaly> findAnomalies(LocalDate startDate, LocalDate endDate) {
+        ensureFresh();
+        NavigableMap<LocalDate, List<SleepAnomaly>> range = anomalies;
+        if (startDate != null) {
+            range = range.tailMap(startDate, true);
+        }
+        if (endDate != null) {
+            range = range.headMap(endDate, true);
+        }
+        List<SleepAnomaly> result = new ArrayList<>();
+        range.values().forEach(result::addAll);
+        return result;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void onApplicationReady() {
+        ensureFresh();
+    }
+
+    /**
+     * 只記下最早的日期，下次查詢時處理：都在目前基準之後時直接併入，否則（補傳、重新上傳）重新計算。
+     */
+    @EventListener
+    public void onNightsWritten(NightsWrittenEvent event) {
+        // 只改寫呼吸資料存法（遷移）時日期為空，比較用的數值不變
+        if (event.getDates().isEmpty()) {
+            return;
+        }
+        markDirty(Collections.min(event.getDates()));
+    }
+
+    private void markDirty(LocalDate from) {
+        dirtyFrom.accumulateAndGet(from, (current, date) -> current == null || date.isBefore(current) ? date : current);
+    }
+
+    private void ensureFresh() {
+        LocalDate from = dirtyFrom.getAndSet(null);
+        if (from == null) {
+            return;
+        }
+        try {
+            if (from.isAfter(watermark)) {
+                append();
+            } else {
+                recompute(from);
+            }
+        } catch (RuntimeException e) {
+            // 基準可能只併入了一部分，下次查詢從這一天之前的 checkpoint 重新計算
+            markDirty(from);
+            throw e;
+        }
+    }
+
+    // 處理期間又有新的寫入時，它的事件會再標記一次，下次查詢時重新計算（已併入的夜晚不會重複計入）
+    private void append() {
+        int nights = replay(watermark);
+        log.debug("睡眠基準併入 {} 晚新資料", nights);
+    }
+
+    private void recompute(LocalDate dirtyFrom) {
+        Map.Entry<LocalDate, SleepBaseline> checkpoint = checkpoints.lowerEntry(dirtyFrom);
+        LocalDate from = checkpoint == null ? LocalDate.MIN : checkpoint.getKey();
+        baseline = checkpoint == null ? newBaseline() : checkpoint.getValue().copy();
+        watermark = from;
+        sinceCheckpoint = 0;
+        checkpoints.tailMap(from, false).clear();
+        anomalies.tailMap(from, false).clear();
+
+        int nights = replay(from);
+        log.info("睡眠基準已從 {} 之後重新計算：{} 晚，{} 晚標記為異常",
+                checkpoint == null ? "最早的夜晚" : from, nights, anomalies.values().stream().mapToInt(List::size).sum());
+    }
+
+    /** 依序併入 after 之後（不含）的全部夜晚，回傳晚數。 */
+    private int replay(LocalDate after) {
+        int[] nights = {0};
+        // LocalDate.MIN 無法寫入 PostgreSQL 的 date，從頭計算時以 epoch 之前的日期代替
+        Date sqlAfter = Date.valueOf(after.equals(LocalDate.MIN) ? LocalDate.of(1900, 1, 1) : after);
+        historyTimer.record(() -> readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(HISTORY_SQL);
+            // PostgreSQL driver 只有在交易內才會依 fetch size 分批取回
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setDate(1, sqlAfter);
+            return ps;
+        }, nightHandler(night -> {
+            accept(night);
+            nights[0]++;
+        }))));
+        return nights[0];
+    }
+
+    /** 夜晚必須依 (date, summary_id) 順序送入。日期換日時視需要保存 checkpoint。 */
+    private void accept(SleepBaseline.Night night) {
+        if (night.getDate().isAfter(watermark) && sinceCheckpoint >= checkpointEvery) {
+            checkpoints.put(watermark, baseline.copy());
+            sinceCheckpoint = 0;
+        }
+        SleepAnomaly anomaly = baseline.accept(night);
+        if (anomaly != null) {
+            anomalies.computeIfAbsent(night.getDate(), d -> new ArrayList<>(1)).add(anomaly);
+        }
+        watermark = night.getDate();
+        sinceCheckpoint++;
+    }
+
+    private SleepBaseline newBaseline() {
+        return new SleepBaseline(alpha, zThreshold, minNights);
+    }
+
+    private static RowCallbackHandler nightHandler(Consumer<SleepBaseline.Night> consumer) {
+        return rs -> consumer.accept(new SleepBaseline.Night(
+                rs.getDate("date").toLocalDate(),
+                rs.getString("summary_id"),
+                nullableInt(rs, "overall_score"),
+                nullableInt(rs, "deep_sleep"),
+                nullableInt(rs, "light_sleep"),
+                nullableInt(rs, "rem_sleep"),
+                nullableDouble(rs, "respiration_mean")));
+    }
+
+    private static Integer nullableInt(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Double nullableDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+}
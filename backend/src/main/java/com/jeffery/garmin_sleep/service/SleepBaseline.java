@@ -0,0 +1,119 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.dto.SleepAnomaly;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 依日期順序逐晚累積的個人基準。每晚先與「之前的夜晚」比較，再把該晚併入基準；
+ * 每個指標各自一個 {@link RollingStat}，某晚缺少的指標（例如沒有呼吸資料）略過。
+ * 結果與夜晚送入的順序有關，因此呼叫端必須依 (date, summary_id) 排序送入。
+ */
+public final class SleepBaseline {
+
+    public enum Metric {
+        SCORE("score", 2.0),
+        DEEP_RATIO("deepRatio", 0.02),
+        REM_RATIO("remRatio", 0.02),
+        RESPIRATION("respiration", 0.3);
+
+        private final String label;
+        // 標準差下限：資料幾乎不變時，避免很小的差異得到很大的 z 分數
+        private final double minStdDev;
+
+        Metric(String label, double minStdDev) {
+            this.label = label;
+            this.minStdDev = minStdDev;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /** 一晚用來比較的數值；null 代表該晚沒有這個指標。 */
+    public static final class Night {
+        final LocalDate date;
+        final String summaryId;
+        final Double[] values = new Double[Metric.values().length];
+
+        public Night(LocalDate date, String summaryId, Integer score, Integer deep, Integer light, Integer rem,
+                     Double respirationMean) {
+            this.date = date;
+            this.summaryId = summaryId;
+            values[Metric.SCORE.ordinal()] = score == null ? null : score.doubleValue();
+            int asleep = (deep == null ? 0 : deep) + (light == null ? 0 : light) + (rem == null ? 0 : rem);
+            if (asleep > 0) {
+                values[Metric.DEEP_RATIO.ordinal()] = deep == null ? null : deep / (double) asleep;
+                values[Metric.REM_RATIO.ordinal()] = rem == null ? null : rem / (double) asleep;
+            }
+            values[Metric.RESPIRATION.ordinal()] = respirationMean;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+    }
+
+    private final double alpha;
+    private final double zThreshold;
+    private final int minNights;
+    private final Map<Metric, RollingStat> stats = new EnumMap<>(Metric.class);
+
+    public SleepBaseline(double alpha, double zThreshold, int minNights) {
+        this.alpha = alpha;
+        this.zThreshold = zThreshold;
+        this.minNights = minNights;
+        for (Metric metric : Metric.values()) {
+            stats.put(metric, new RollingStat(alpha));
+        }
+    }
+
+    private SleepBaseline(SleepBaseline other) {
+        this.alpha = other.alpha;
+        this.zThreshold = other.zThreshold;
+        this.minNights = other.minNights;
+        other.stats.forEach((metric, stat) -> stats.put(metric, stat.copy()));
+    }
+
+    public SleepBaseline copy() {
+        return new SleepBaseline(this);
+    }
+
+    public RollingStat stat(Metric metric) {
+        return stats.get(metric);
+    }
+
+    /**
+     * 與目前的基準比較後併入。基準累積到 min-nights 晚之前不判斷。
+     *
+     * @return 有任何指標超出門檻時回傳該晚的異常，否則 null
+     */
+    public SleepAnomaly accept(Night night) {
+        List<SleepAnomaly.Deviation> deviations = null;
+        for (Metric metric : Metric.values()) {
+            Double value = night.values[metric.ordinal()];
+            if (value == null) {
+                continue;
+            }
+            RollingStat stat = stats.get(metric);
+            if (stat.getCount() >= minNights) {
+                double z = stat.zScore(value, metric.minStdDev);
+                if (Math.abs(z) >= zThreshold) {
+                    if (deviations == null) {
+                        deviations = new ArrayList<>(2);
+                    }
+                    deviations.add(new SleepAnomaly.Deviation(metric.label, value, stat.getEwma(), z,
+                            stat.getMean(), stat.getStdDev(), stat.getP10(), stat.getP50(), stat.getP90(),
+                            stat.getCount()));
+                }
+            }
+            stat.add(value);
+        }
+        return deviations == null ? null : new SleepAnomaly(night.date.toString(), night.summaryId, deviations);
+    }
+}
@@ -0,0 +1,248 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.Hypnogram;
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 組出 chatbot 的 prompt。由 {@link NightViewCache} 取回詢問日期往前 window-nights 晚的 summary、統計值與階段片段，
+ * 每晚壓成一行統計，再把階段片段轉成 run-length 編碼的 hypnogram（例如 "L12 D25 R18"，單位分鐘）。
+ * prompt 依 token-budget（以字元數 / 4 估算）裁切，優先順序為：
+ * 詢問當晚的統計與 hypnogram → 其他夜晚的統計（由近到遠）→ 其他夜晚的 hypnogram（由近到遠）。
+ * hypnogram 放不下時，先把過短的片段併入前一段再試。
+ * 詢問當晚另外附上整晚三等分各段的深眠 / REM 分鐘數（由 {@link Hypnogram} 的區間查詢算出）。
+ */
+@Component
+public class SleepContextBuilder {
+
+    // 片段短於這些分鐘數時併入前一段，依序嘗試直到放得進預算
+    private static final int[] COARSEN_MINUTES = {0, 3, 5, 10, 20};
+
+    private static final char[] LETTERS = {'D', 'L', 'R', 'W', 'U'};
+
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("HH:mm");
+
+    private final NightViewCache nightViewCache;
+    private final int windowNights;
+    private final int tokenBudget;
+
+    public SleepContextBuilder(NightViewCache nightViewCache,
+                               @Value("${chatbot.context.window-nights:7}") int windowNights,
+                               @Value("${chatbot.context.token-budget:1200}") int tokenBudget) {
+        this.nightViewCache = nightViewCache;
+        this.windowNights = windowNights;
+        this.tokenBudget = tokenBudget;
+    }
+
+    /** 詢問日期（含）往前 window-nights 晚，依日期由舊到新。 */
+    public List<NightContext> loadWindow(LocalDate date) {
+        List<LocalDate> dates = new ArrayList<>(windowNights);
+        for (int i = windowNights - 1; i >= 0; i--) {
+            dates.add(date.minusDays(i));
+        }
+        return nightViewCache.findAll(dates);
+    }
+
+    public String buildPrompt(String question, LocalDate date, List<NightContext> nights) {
+        return buildPrompt(question, date, nights, tokenBudget);
+    }
+
+    public static String buildPrompt(String question, LocalDate date, List<NightContext> nights, int tokenBudget) {
+        StringBuilder prompt = new StringBuilder();
+
+        // Prompt instructions (concise)
+        prompt.append("You are a sleep coach. Based on the user's question and data below, give a short and helpful answer.\n\n");
+        prompt.append("Question:\n\"").append(question).append("\"\n\n");
+
+        prompt.append("Respond in 3 short sections:\n");
+        prompt.append("1. Quick answer\n2. Sleep issues\n3. One or two practical suggestions\n");
+        prompt.append("Be brief and clear.\n\n");
+
+        prompt.append("Data: the night asked about is marked *, durations in minutes. ")
+                .append("Hypnogram runs are <stage><minutes> in time order: D=deep L=light R=REM W=awake U=unmeasurable. ")
+                .append("thirds = deep/REM minutes in the first, middle and last third of the night.\n\n");
+
+        NightContext target = null;
+        List<NightContext> others = new ArrayList<>();
+        for (NightContext night : nights) {
+            if (night.getSummary().getDate().equals(date)) {
+                target = night;
+            } else {
+                others.add(0, night); // 由近到遠
+            }
+        }
+
+        int budgetChars = tokenBudget * 4;
+        List<String> statLines = new ArrayList<>();
+        List<String> hypnograms = new ArrayList<>();
+        int used = prompt.length() + "【Nights】\n\n【Hypnograms】\n".length();
+
+        if (target != null) {
+            String line = statLine(target, true);
+            statLines.add(line);
+            used += line.length() + 1;
+            String hypnogram = fitHypnogram(target, true, budgetChars - used);
+            if (hypnogram != null) {
+                hypnograms.add(hypnogram);
+                used += hypnogram.length() + 1;
+            }
+        } else {
+            statLines.add(date + "* no data");
+        }
+
+        List<NightContext> included = new ArrayList<>();
+        for (NightContext night : others) {
+            String line = statLine(night, false);
+            if (used + line.length() + 1 > budgetChars) {
+                break;
+            }
+            statLines.add(line);
+            included.add(night);
+            used += line.length() + 1;
+        }
+        for (NightContext night : included) {
+            String line = fitHypnogram(night, false, budgetChars - used);
+            if (line == null) {
+                break;
+            }
+            hypnograms.add(line);
+            used += line.length() + 1;
+        }
+
+        // 輸出時依日期由舊到新，方便模型看出趨勢
+        statLines.sort(String::compareTo);
+        hypnograms.sort(String::compareTo);
+        prompt.append("【Nights】\n");
+        statLines.forEach(l -> prompt.append(l).append('\n'));
+        if (!hypnograms.isEmpty()) {
+            prompt.append("\n【Hypnograms】\n");
+            hypnograms.forEach(l -> prompt.append(l).append('\n'));
+        }
+        return prompt.toString();
+    }
+
+    public static int estimateTokens(String text) {
+        return (text.length() + 3) / 4;
+    }
+
+    // 行首為日期（當晚加 *），排序時 * 會被忽略不影響日期順序
+    private static String statLine(NightContext night, boolean target) {
+        SleepSummary s = night.getSummary();
+        SleepNightStats n = night.getStats();
+        StringBuilder line = new StringBuilder();
+        line.append(s.getDate()).append(target ? "*" : "")
+                .append(" score ").append(s.getOverallScore()).append(' ').append(s.getScoreQualifier())
+                .append(" | total ").append(minutes(s.getTotalDuration()))
+                .append(" deep ").append(minutes(s.getDeepSleep()))
+                .append(" light ").append(minutes(s.getLightSleep()))
+                .append(" REM ").append(minutes(s.getRemSleep()))
+                .append(" awake ").append(minutes(s.getAwakeSleep()));
+        if (n != null) {
+            if (n.getSleepEfficiency() != null) {
+                line.append(" | eff ").append(Math.round(n.getSleepEfficiency() * 100)).append('%');
+            }
+            line.append(" wakeups ").append(n.getAwakenings())
+                    .append(" longest-deep ").append(minutes(n.getLongestDeepSeconds()));
+            if (n.getRespirationSamples() != null && n.getRespirationSamples() > 0) {
+                line.append(String.format(" | resp %.1f (%.1f-%.1f)",
+                        n.getRespirationMean(), n.getRespirationP10(), n.getRespirationP90()));
+            }
+        }
+        Hypnogram hypnogram = night.getHypnogram();
+        if (target && hypnogram.size() > 0) {
+            line.append(" | thirds");
+            long third = (hypnogram.end() - hypnogram.start()) / 3;
+            for (int i = 0; i < 3; i++) {
+                long from = hypnogram.start() + i * third;
+                long to = i == 2 ? hypnogram.end() : from + third;
+                line.append(i == 0 ? " " : ", ")
+                        .append(Math.round(hypnogram.secondsIn(Hypnogram.DEEP, from, to) / 60.0)).append('/')
+                        .append(Math.round(hypnogram.secondsIn(Hypnogram.REM, from, to) / 60.0));
+            }
+        }
+        return line.toString();
+    }
+
+    /** 由細到粗嘗試，回傳放得進剩餘字元數的最細 hypnogram；都放不下時回傳 null。 */
+    private static String fitHypnogram(NightContext night, boolean target, int remainingChars) {
+        for (int minMinutes : COARSEN_MINUTES) {
+            String line = hypnogramLine(night, target, minMinutes);
+            if (line.length() + 1 <= remainingChars) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private static String hypnogramLine(NightContext night, boolean target, int minMinutes) {
+        StringBuilder line = new StringBuilder();
+        line.append(night.getSummary().getDate()).append(target ? "*" : "");
+        Hypnogram hypnogram = night.getHypnogram();
+        if (hypnogram.size() == 0) {
+            return line.append(" no stages").toString();
+        }
+        line.append(" from ").append(Instant.ofEpochSecond(hypnogram.start())
+                .atZone(ZoneId.systemDefault()).format(CLOCK)).append(':');
+        for (long[] run : runs(hypnogram, minMinutes)) {
+            line.append(' ').append((char) run[0]).append(Math.round(run[1] / 60.0));
+        }
+        return line.toString();
+    }
+
+    /**
+     * 把 hypnogram 的片段依序轉成 {階段字母, 秒數} 的 run，相鄰同階段合併；
+     * minMinutes > 0 時短於它的 run 併入前一段（第一段併入下一段）後再合併。
+     */
+    public static List<long[]> runs(Hypnogram hypnogram, int minMinutes) {
+        List<long[]> runs = new ArrayList<>();
+        for (int i = 0; i < hypnogram.size(); i++) {
+            appendRun(runs, LETTERS[hypnogram.stageOf(i)], hypnogram.endOf(i) - hypnogram.startOf(i));
+        }
+        if (minMinutes <= 0 || runs.size() < 2) {
+            return runs;
+        }
+        long minSeconds = minMinutes * 60L;
+        List<long[]> coarse = new ArrayList<>();
+        long carried = 0;
+        for (long[] run : runs) {
+            if (run[1] < minSeconds) {
+                if (coarse.isEmpty()) {
+                    carried += run[1];
+                } else {
+                    coarse.get(coarse.size() - 1)[1] += run[1];
+                }
+            } else {
+                appendRun(coarse, run[0], run[1] + carried);
+                carried = 0;
+            }
+        }
+        if (coarse.isEmpty()) {
+            return runs;
+        }
+        coarse.get(coarse.size() - 1)[1] += carried;
+        return coarse;
+    }
+
+    private static void appendRun(List<long[]> runs, long letter, long seconds) {
+        if (!runs.isEmpty() && runs.get(runs.size() - 1)[0] == letter) {
+            runs.get(runs.size() - 1)[1] += seconds;
+        } else {
+            runs.add(new long[]{letter, seconds});
+        }
+    }
+
+    private static String minutes(Integer seconds) {
+        return seconds == null ? "?" : String.valueOf(Math.round(seconds / 60.0));
+    }
+}
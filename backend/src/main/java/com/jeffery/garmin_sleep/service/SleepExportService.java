@@ -0,0 +1,193 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 日期區間內的資料匯出為 gzip 壓縮的 CSV。以 JDBC cursor（固定 fetch size）逐列讀取並直接寫入輸出串流，
+ * 不建立 entity；呼吸率 blob 在讀到該晚時才解碼，記憶體用量與區間長短無關。
+ * 各資料集的耗時記在 sleep.query{query=export-summary|export-stages|export-respiration}。
+ */
+@Service
+@Slf4j
+public class SleepExportService {
+
+    private static final String SUMMARY_SQL = """
+            SELECT summary_id, date, total_duration, deep_sleep, light_sleep, rem_sleep, awake_sleep,
+                   overall_score, score_qualifier
+            FROM sleep_summary
+            WHERE date BETWEEN ? AND ?
+            ORDER BY date, summary_id
+            """;
+
+    // night_date 為 partition key，區間外的月份不會被掃描
+    private static final String STAGES_SQL = """
+            SELECT summary_id, night_date, stage_type, start_time, end_time, duration
+            FROM sleep_stage_segments
+            WHERE night_date BETWEEN ? AND ?
+            ORDER BY night_date, summary_id, start_time
+            """;
+
+    // 每晚一個 blob；尚未遷移成 blob 的夜晚讀逐列資料
+    private static final String RESPIRATION_SQL = """
+            SELECT ss.summary_id, ss.date, rs.data, NULL::int AS offset_seconds, NULL::float8 AS respiration_rate
+            FROM sleep_summary ss
+            JOIN sleep_respiration_series rs ON rs.summary_id = ss.summary_id
+            WHERE ss.date BETWEEN ? AND ?
+            UNION ALL
+            SELECT r.summary_id, r.night_date, NULL, r.offset_seconds, r.respiration_rate
+            FROM sleep_respiration r
+            WHERE r.night_date BETWEEN ? AND ?
+              AND NOT EXISTS (SELECT 1 FROM sleep_respiration_series s WHERE s.summary_id = r.summary_id)
+            ORDER BY 2, 1, 4
+            """;
+
+    private static final int FETCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final MeterRegistry meterRegistry;
+
+    public SleepExportService(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 把 [startDate, endDate] 的資料寫成 gzip CSV（第一列為欄位名稱）。不會關閉 out。
+     *
+     * @return 寫出的資料列數（不含標題列）
+     */
+    public long export(ExportDataset dataset, LocalDate startDate, LocalDate endDate, OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+        CsvWriter csv = new CsvWriter(writer);
+        long[] rows = {0};
+        long startedAt = System.nanoTime();
+        try {
+            switch (dataset) {
+                case SUMMARY -> {
+                    csv.row("summary_id", "date", "total_duration", "deep_sleep", "light_sleep", "rem_sleep",
+                            "awake_sleep", "overall_score", "score_qualifier");
+                    query(SUMMARY_SQL, startDate, endDate, false, rs -> {
+                        csv.field(rs.getString(1)).field(rs.getDate(2).toLocalDate().toString())
+                                .field(nullableInt(rs, 3)).field(nullableInt(rs, 4)).field(nullableInt(rs, 5))
+                                .field(nullableInt(rs, 6)).field(nullableInt(rs, 7)).field(nullableInt(rs, 8))
+                                .field(rs.getString(9)).endRow();
+                        rows[0]++;
+                    });
+                }
+                case STAGES -> {
+                    csv.row("summary_id", "date", "stage_type", "start_time", "end_time", "duration");
+                    query(STAGES_SQL, startDate, endDate, false, rs -> {
+                        csv.field(rs.getString(1)).field(rs.getDate(2).toLocalDate().toString())
+                                .field(rs.getString(3)).field(rs.getLong(4)).field(rs.getLong(5))
+                                .field(nullableInt(rs, 6)).endRow();
+                        rows[0]++;
+                    });
+                }
+                case RESPIRATION -> {
+                    csv.row("summary_id", "date", "offset_seconds", "respiration_rate");
+                    query(RESPIRATION_SQL, startDate, endDate, true, rs -> {
+                        String summaryId = rs.getString(1);
+                        LocalDate date = rs.getDate(2).toLocalDate();
+                        String day = date.toString();
+                        byte[] data = rs.getBytes(3);
+                        if (data != null) {
+                            RespirationSeries series = RespirationCodec.decode(summaryId, date, data);
+                            for (int i = 0; i < series.size(); i++) {
+                                csv.field(summaryId).field(day).field(series.getOffsets()[i])
+                                        .fieldCenti(series.getRates()[i]).endRow();
+                            }
+                            rows[0] += series.size();
+                        } else {
+                            csv.field(summaryId).field(day).field(rs.getInt(4)).fieldCenti(rs.getDouble(5)).endRow();
+                            rows[0]++;
+                        }
+                    });
+                }
+            }
+            writer.flush();
+            gzip.finish();
+        } catch (UncheckedIOException e) {
+            // 多半是用戶端中斷下載
+            throw e.getCause();
+        }
+        long nanos = System.nanoTime() - startedAt;
+        meterRegistry.timer("sleep.query", "query", "export-" + dataset.name().toLowerCase())
+                .record(nanos, TimeUnit.NANOSECONDS);
+        log.info("匯出 {} {}~{}：{} 列，{} ms", dataset, startDate, endDate, rows[0], nanos / 1_000_000);
+        return rows[0];
+    }
+
+    private void query(String sql, LocalDate startDate, LocalDate endDate, boolean twice, RowWriter rowWriter) {
+        // PostgreSQL driver 只有在交易內（autocommit 關閉）才會依 fetch size 分批取回
+        readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setDate(1, Date.valueOf(startDate));
+            ps.setDate(2, Date.valueOf(endDate));
+            // 逐列呼吸資料依 night_date 分月存放，以常數區間讓規劃階段就排除其他月份
+            if (twice) {
+                ps.setDate(3, Date.valueOf(startDate));
+                ps.setDate(4, Date.valueOf(endDate));
+            }
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            try {
+                rowWriter.write(rs);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    private static Integer nullableInt(ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(ResultSet rs) throws SQLException, IOException;
+    }
+
+    /** GZIPOutputStream.finish 之後不關閉 servlet 的輸出串流，交給容器處理。 */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
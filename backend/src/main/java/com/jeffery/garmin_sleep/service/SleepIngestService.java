@@ -0,0 +1,229 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.UploadJob;
+import com.jeffery.garmin_sleep.repository.SleepBatchWriter;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Garmin 匯出 CSV 的匯入流程。讀檔的執行緒只負責切出 CSV 資料列，每 nights-per-task 晚
+ * 交給 worker pool 以 streaming parser 解析，再依 chunk-size 列切成數個 JDBC batch 寫入，
+ * 每個 chunk 各自提交一次交易。
+ * UPSERT 模式下每個 chunk 先一次查出既有內容雜湊，未變動的夜晚不寫入，
+ * 有變動的夜晚先鎖住 summary 列、以 set-based DELETE 清掉舊的子表資料後整批重新寫入。
+ * 每晚的統計值（sleep_night_stats）在同一交易內一併算好寫入。
+ * 各階段耗時與寫入速度發佈為 ingest.* 指標（見 {@link IngestMetrics}）。
+ * chunk 提交後以 {@link NightsWrittenEvent} 通知實際寫入的夜晚，讓 {@link NightViewCache} 失效，
+ * 並由 {@link SleepAnomalyService} 把新夜晚併入個人基準。
+ */
+@Service
+@Slf4j
+public class SleepIngestService {
+
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build();
+
+    private final SleepBatchWriter batchWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor workerExecutor;
+    private final GarminNightParser parser = new GarminNightParser();
+    private final int chunkSize;
+    private final int nightsPerTask;
+    private final IngestMode defaultMode;
+    private final RespirationStorage respirationStorage;
+    private final IngestMetrics metrics;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public SleepIngestService(SleepBatchWriter batchWriter,
+                              IngestMetrics metrics,
+                              ApplicationEventPublisher eventPublisher,
+                              PlatformTransactionManager transactionManager,
+                              @Qualifier("ingestWorkerExecutor") Executor workerExecutor,
+                              @Value("${ingest.chunk-size:5000}") int chunkSize,
+                              @Value("${ingest.nights-per-task:16}") int nightsPerTask,
+                              @Value("${ingest.mode:upsert}") IngestMode defaultMode,
+                              @Value("${respiration.storage:series}") RespirationStorage respirationStorage) {
+        this.batchWriter = batchWriter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.workerExecutor = workerExecutor;
+        this.chunkSize = chunkSize;
+        this.nightsPerTask = nightsPerTask;
+        this.defaultMode = defaultMode;
+        this.respirationStorage = respirationStorage;
+        this.metrics = metrics;
+        this.eventPublisher = eventPublisher;
+    }
+
+    public IngestMode getDefaultMode() {
+        return defaultMode;
+    }
+
+    /**
+     * 處理整個 CSV 並在所有 worker 完成後返回。單晚解析或寫入失敗只記在該晚的狀態，
+     * CSV 本身無法讀取時才會丟出例外。
+     */
+    public void ingest(InputStream input, IngestMode mode, UploadJob job) throws IOException {
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+             CSVParser csvParser = new CSVParser(reader, CSV_FORMAT)) {
+            int record = 0;
+            int firstRecord = 0;
+            List<String> batch = new ArrayList<>(nightsPerTask);
+
+            for (CSVRecord csvRecord : csvParser) {
+                batch.add(csvRecord.get("data"));
+                record++;
+                if (batch.size() == nightsPerTask) {
+                    tasks.add(submit(batch, firstRecord, mode, job));
+                    batch = new ArrayList<>(nightsPerTask);
+                    firstRecord = record;
+                }
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(submit(batch, firstRecord, mode, job));
+            }
+        } finally {
+            // 讀檔失敗時也要等已送出的工作結束，避免 spool 檔在 worker 仍使用中時被刪除
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        }
+
+        log.info("CSV 匯入完成（{}）：job {}，{} 晚（寫入 {}、略過 {}、失敗 {}）、{} 列、{} 個 chunk",
+                mode, job.getId(), job.getNightsParsed().get() + job.getNightsFailed().get(),
+                job.getNightsWritten().get(), job.getNightsSkipped().get(), job.getNightsFailed().get(),
+                job.getRowsWritten().get(), job.getChunks().size());
+    }
+
+    private CompletableFuture<Void> submit(List<String> batch, int firstRecord, IngestMode mode, UploadJob job) {
+        return CompletableFuture.runAsync(() -> processBatch(batch, firstRecord, mode, job), workerExecutor);
+    }
+
+    private void processBatch(List<String> batch, int firstRecord, IngestMode mode, UploadJob job) {
+        List<ParsedNight> chunk = new ArrayList<>();
+        List<Integer> records = new ArrayList<>();
+        int pendingRows = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            int record = firstRecord + i;
+            ParsedNight night;
+            long parseStartedAt = System.nanoTime();
+            try {
+                night = parser.parse(batch.get(i));
+                metrics.recordParse(System.nanoTime() - parseStartedAt);
+            } catch (Exception e) {
+                job.nightFailed(record, "解析失敗：" + e.getMessage());
+                continue;
+            }
+            job.nightParsed(record, night);
+            chunk.add(night);
+            records.add(record);
+            pendingRows += night.rowCount();
+            if (pendingRows >= chunkSize) {
+                writeChunk(chunk, records, pendingRows, mode, job);
+                chunk = new ArrayList<>();
+                records = new ArrayList<>();
+                pendingRows = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk, records, pendingRows, mode, job);
+        }
+    }
+
+    private void writeChunk(List<ParsedNight> chunk, List<Integer> records, int rows, IngestMode mode, UploadJob job) {
+        long chunkStartedAt = System.nanoTime();
+        Set<ParsedNight> written;
+        try {
+            batchWriter.ensurePartitions(chunk.stream().map(n -> n.getSummary().getDate()).distinct().toList());
+            written = metrics.chunk(() -> transactionTemplate.execute(status -> {
+                batchWriter.lockAgainstPartitionChanges();
+                List<ParsedNight> toWrite;
+                if (mode == IngestMode.UPSERT) {
+                    toWrite = metrics.diff(() -> changedNights(chunk));
+                    // summary 的 upsert 先取得列鎖，同一晚的並行寫入因此會排隊而不會重複新增子表資料
+                    metrics.persist("sleep_summary", () -> batchWriter.upsertSummaries(toWrite));
+                    metrics.persist("delete_children", () -> batchWriter.deleteChildren(
+                            toWrite.stream().map(n -> n.getSummary().getSummaryId()).toList()));
+                } else {
+                    // APPEND 會讓子表與雜湊不一致，清掉雜湊讓下一次 UPSERT 一定重寫這些夜晚
+                    toWrite = chunk;
+                    chunk.forEach(n -> n.getSummary().setContentHash(null));
+                    metrics.persist("sleep_summary", () -> batchWriter.upsertSummaries(toWrite));
+                }
+                metrics.persist("sleep_stage_segments", () -> batchWriter.insertStages(toWrite));
+                if (respirationStorage == RespirationStorage.SERIES && mode == IngestMode.APPEND) {
+                    metrics.persist("sleep_respiration_series", () -> batchWriter.appendRespirationSeries(toWrite));
+                } else if (respirationStorage == RespirationStorage.SERIES) {
+                    metrics.persist("sleep_respiration_series", () -> batchWriter.upsertRespirationSeries(toWrite));
+                } else {
+                    metrics.persist("sleep_respiration", () -> batchWriter.insertRespiration(toWrite));
+                }
+                metrics.persist("sleep_night_stats", () -> batchWriter.upsertNightStats(toWrite));
+                Set<ParsedNight> result = Collections.newSetFromMap(new IdentityHashMap<>());
+                result.addAll(toWrite);
+                return result;
+            }));
+        } catch (Exception e) {
+            log.error("job {} 的 chunk 寫入失敗（{} 晚）", job.getId(), chunk.size(), e);
+            for (Integer record : records) {
+                job.nightFailed(record, "寫入失敗：" + e.getMessage());
+            }
+            return;
+        }
+
+        if (!written.isEmpty()) {
+            eventPublisher.publishEvent(new NightsWrittenEvent(
+                    written.stream().map(n -> n.getSummary().getSummaryId()).toList(),
+                    written.stream().map(n -> n.getSummary().getDate()).toList()));
+        }
+
+        long rowsWritten = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            if (written.contains(chunk.get(i))) {
+                rowsWritten += chunk.get(i).rowCount();
+                job.nightWritten(records.get(i));
+            } else {
+                job.nightSkipped(records.get(i));
+            }
+        }
+        metrics.rowsWritten(rowsWritten);
+        long millis = (System.nanoTime() - chunkStartedAt) / 1_000_000;
+        job.chunkWritten(chunk.size(), rows, millis);
+        log.debug("job {} chunk 已提交：{} 晚、{} 列、{} ms", job.getId(), chunk.size(), rows, millis);
+    }
+
+    /**
+     * 只保留內容雜湊與資料庫不同的夜晚；同一 chunk 內重複的 summary_id 以最後一筆為準。
+     */
+    private List<ParsedNight> changedNights(List<ParsedNight> chunk) {
+        Map<String, ParsedNight> latest = new LinkedHashMap<>();
+        for (ParsedNight night : chunk) {
+            latest.remove(night.getSummary().getSummaryId());
+            latest.put(night.getSummary().getSummaryId(), night);
+        }
+        Map<String, String> stored = batchWriter.findContentHashes(latest.keySet());
+        List<ParsedNight> changed = new ArrayList<>(latest.size());
+        for (ParsedNight night : latest.values()) {
+            String hash = night.getSummary().getContentHash();
+            if (!hash.equals(stored.get(night.getSummary().getSummaryId()))) {
+                changed.add(night);
+            }
+        }
+        return changed;
+    }
+}
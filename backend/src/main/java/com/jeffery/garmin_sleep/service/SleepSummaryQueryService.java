@@ -0,0 +1,147 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.jeffery.garmin_sleep.dto.SleepSummaryPage;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import com.jeffery.garmin_sleep.repository.SleepSummaryRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * sleep_summary 的列表查詢。一般請求以 (date, summary_id) keyset 分頁，
+ * 每頁只查 pageSize + 1 列；完整匯出則以 JDBC cursor 逐列寫成 NDJSON，記憶體用量與歷史長短無關。
+ * date 欄位可為 NULL（改用 Flyway 前的舊資料），這些列無法放進 keyset 順序，列表與匯出都不包含。
+ */
+@Service
+public class SleepSummaryQueryService {
+
+    private static final String STREAM_SQL = """
+            SELECT summary_id, date, total_duration, deep_sleep, light_sleep, rem_sleep, awake_sleep,
+                   overall_score, score_qualifier
+            FROM sleep_summary
+            WHERE date IS NOT NULL
+            ORDER BY date, summary_id
+            """;
+
+    private static final int FETCH_SIZE = 500;
+
+    private final SleepSummaryRepository summaryRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectMapper objectMapper;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    public SleepSummaryQueryService(SleepSummaryRepository summaryRepo,
+                                    JdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager,
+                                    ObjectMapper objectMapper,
+                                    @Value("${summary.page-size:100}") int defaultPageSize,
+                                    @Value("${summary.max-page-size:1000}") int maxPageSize) {
+        this.summaryRepo = summaryRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * @param cursor   上一頁回傳的 nextCursor，null 代表第一頁
+     * @param pageSize null 時使用 summary.page-size，超過 summary.max-page-size 時取上限
+     * @throws IllegalArgumentException cursor 格式錯誤
+     */
+    public SleepSummaryPage page(String cursor, Integer pageSize) {
+        int size = Math.max(1, Math.min(pageSize == null ? defaultPageSize : pageSize, maxPageSize));
+        // 多查一列判斷是否還有下一頁
+        Limit limit = Limit.of(size + 1);
+        List<SleepSummary> rows;
+        if (cursor == null || cursor.isEmpty()) {
+            rows = summaryRepo.findByDateNotNullOrderByDateAscSummaryIdAsc(limit);
+        } else {
+            String[] key = decodeCursor(cursor);
+            LocalDate date;
+            try {
+                date = LocalDate.parse(key[0]);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("cursor 格式錯誤", e);
+            }
+            rows = summaryRepo.findPageAfter(date, key[1], limit);
+        }
+        if (rows.size() <= size) {
+            return new SleepSummaryPage(rows, null);
+        }
+        List<SleepSummary> items = rows.subList(0, size);
+        SleepSummary last = items.get(size - 1);
+        return new SleepSummaryPage(items, encodeCursor(last.getDate(), last.getSummaryId()));
+    }
+
+    /** 依 (date, summary_id) 順序把所有 summary 寫成 NDJSON，每列一個 JSON 物件。 */
+    public void streamAll(OutputStream out) throws IOException {
+        // 不逐列 flush，交給 servlet 的輸出緩衝區決定何時送出
+        ObjectWriter rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            // generator 預設在第二個之後的 root value 前寫一個空白；NDJSON 每列必須恰好是一個 JSON 物件，換行由下方自行寫出
+            generator.setRootValueSeparator(null);
+            // PostgreSQL driver 只有在交易內（autocommit 關閉）才會依 fetch size 分批取回
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                var ps = con.prepareStatement(STREAM_SQL);
+                ps.setFetchSize(FETCH_SIZE);
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                SleepSummary summary = new SleepSummary();
+                summary.setSummaryId(rs.getString("summary_id"));
+                summary.setDate(rs.getDate("date").toLocalDate());
+                summary.setTotalDuration(rs.getObject("total_duration", Integer.class));
+                summary.setDeepSleep(rs.getObject("deep_sleep", Integer.class));
+                summary.setLightSleep(rs.getObject("light_sleep", Integer.class));
+                summary.setRemSleep(rs.getObject("rem_sleep", Integer.class));
+                summary.setAwakeSleep(rs.getObject("awake_sleep", Integer.class));
+                summary.setOverallScore(rs.getObject("overall_score", Integer.class));
+                summary.setScoreQualifier(rs.getString("score_qualifier"));
+                try {
+                    rowWriter.writeValue(generator, summary);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            generator.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String encodeCursor(LocalDate date, String summaryId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((date + "|" + summaryId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 2);
+        if (key.length != 2) {
+            throw new IllegalArgumentException("cursor 格式錯誤");
+        }
+        return key;
+    }
+}
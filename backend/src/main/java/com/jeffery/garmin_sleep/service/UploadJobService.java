@@ -0,0 +1,95 @@
+package com.jeffery.garmin_sleep.service;
+
+import com.jeffery.garmin_sleep.model.UploadJob;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 非同步上傳工作：先把上傳檔寫到本機 spool 目錄並立即回傳 job，
+ * 實際匯入由 uploadJobExecutor 執行，進度可透過 job id 查詢。
+ * 完成超過 job-retention 的工作會在下一次提交時清除。
+ */
+@Service
+@Slf4j
+public class UploadJobService {
+
+    private final SleepIngestService ingestService;
+    private final TaskExecutor jobExecutor;
+    private final Path spoolDir;
+    private final Duration retention;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    public UploadJobService(SleepIngestService ingestService,
+                            @Qualifier("uploadJobExecutor") TaskExecutor jobExecutor,
+                            @Value("${ingest.spool-dir:${java.io.tmpdir}/sleepgenius-uploads}") Path spoolDir,
+                            @Value("${ingest.job-retention:PT1H}") Duration retention) throws IOException {
+        this.ingestService = ingestService;
+        this.jobExecutor = jobExecutor;
+        this.spoolDir = Files.createDirectories(spoolDir);
+        this.retention = retention;
+    }
+
+    /**
+     * 佇列已滿時丟出 TaskRejectedException，spool 檔會一併刪除。
+     */
+    public UploadJob submit(MultipartFile file, IngestMode mode) throws IOException {
+        purgeExpired();
+        IngestMode effectiveMode = mode != null ? mode : ingestService.getDefaultMode();
+        UploadJob job = new UploadJob(UUID.randomUUID().toString(), file.getOriginalFilename(), effectiveMode.name());
+
+        Path spooled = spoolDir.resolve(job.getId() + ".csv");
+        file.transferTo(spooled);
+
+        jobs.put(job.getId(), job);
+        try {
+            jobExecutor.execute(() -> run(job, spooled, effectiveMode));
+        } catch (RuntimeException e) {
+            jobs.remove(job.getId());
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        return job;
+    }
+
+    public Optional<UploadJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    private void run(UploadJob job, Path spooled, IngestMode mode) {
+        job.start();
+        try (InputStream input = Files.newInputStream(spooled)) {
+            ingestService.ingest(input, mode, job);
+            job.complete();
+        } catch (Exception e) {
+            log.error("上傳工作 {} 失敗", job.getId(), e);
+            job.fail(e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(spooled);
+            } catch (IOException e) {
+                log.warn("無法刪除 spool 檔 {}", spooled, e);
+            }
+        }
+    }
+
+    private void purgeExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+}
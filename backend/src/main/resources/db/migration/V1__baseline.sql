@@ -0,0 +1,31 @@
+-- 改用 Flyway 之前由 Hibernate ddl-auto=update 建立的結構（與原始實體產生的結果相同）。
+-- 既有資料庫以 baseline-on-migrate 標記為版本 1，不會執行這個檔案；只有空的資料庫會從這裡開始。
+-- 之後新增的欄位、資料表與索引都在後續版本（V2、V3）。
+
+CREATE TABLE sleep_summary (
+    summary_id      varchar(255) PRIMARY KEY,
+    date            date,
+    total_duration  integer,
+    deep_sleep      integer,
+    light_sleep     integer,
+    rem_sleep       integer,
+    awake_sleep     integer,
+    overall_score   integer,
+    score_qualifier varchar(255)
+);
+
+CREATE TABLE sleep_stage_segments (
+    id         bigserial PRIMARY KEY,
+    summary_id varchar(255) REFERENCES sleep_summary (summary_id),
+    stage_type varchar(255),
+    start_time bigint,
+    end_time   bigint,
+    duration   integer
+);
+
+CREATE TABLE sleep_respiration (
+    id               bigserial PRIMARY KEY,
+    summary_id       varchar(255) REFERENCES sleep_summary (summary_id),
+    offset_seconds   integer,
+    respiration_rate double precision
+);
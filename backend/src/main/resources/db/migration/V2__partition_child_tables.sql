@@ -0,0 +1,87 @@
+-- 每晚的子表（sleep_stage_segments、sleep_respiration）改為依 night_date 每月一個 partition（需 PostgreSQL 11 以上）。
+-- 單晚與區間查詢帶 night_date 條件，只會掃到相關月份，資料累積多年後查詢計畫也不變；
+-- 舊資料可以整個月份 DETACH PARTITION 後 pg_dump 歸檔再 DROP，不必逐列刪除。
+-- 每個 partition 有 (summary_id, ...) 的 btree 供單晚查詢，時間欄位另建 BRIN（資料大致依時間寫入，BRIN 很小）。
+
+-- 建立 night 所在月份的 partition（兩張子表各一個）。匯入寫入前先呼叫，已存在時不做任何事。
+CREATE OR REPLACE FUNCTION ensure_sleep_partitions(night date) RETURNS void AS $$
+DECLARE
+    month_start date := date_trunc('month', night)::date;
+    suffix      text := to_char(month_start, '"y"YYYY"m"MM');
+    parent      text;
+BEGIN
+    -- 並行的匯入可能同時建立同一個月份
+    PERFORM pg_advisory_xact_lock(hashtext('ensure_sleep_partitions'));
+    FOREACH parent IN ARRAY ARRAY['sleep_stage_segments', 'sleep_respiration'] LOOP
+        IF to_regclass(parent || '_' || suffix) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                           parent || '_' || suffix, parent, month_start, (month_start + interval '1 month')::date);
+        END IF;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- baseline 之前的資料庫可能還沒有這個索引
+CREATE INDEX IF NOT EXISTS idx_summary_date_id ON sleep_summary (date, summary_id);
+
+-- 舊表改名保留到資料搬完；主鍵與索引名稱先讓出來
+ALTER SEQUENCE sleep_stage_segments_id_seq OWNED BY NONE;
+ALTER TABLE sleep_stage_segments RENAME TO sleep_stage_segments_heap;
+ALTER TABLE sleep_stage_segments_heap RENAME CONSTRAINT sleep_stage_segments_pkey TO sleep_stage_segments_heap_pkey;
+DROP INDEX IF EXISTS idx_stage_summary_start;
+
+ALTER SEQUENCE sleep_respiration_id_seq OWNED BY NONE;
+ALTER TABLE sleep_respiration RENAME TO sleep_respiration_heap;
+ALTER TABLE sleep_respiration_heap RENAME CONSTRAINT sleep_respiration_pkey TO sleep_respiration_heap_pkey;
+DROP INDEX IF EXISTS idx_respiration_summary_offset;
+
+-- partition key 必須包含在主鍵中
+CREATE TABLE sleep_stage_segments (
+    id         bigint NOT NULL DEFAULT nextval('sleep_stage_segments_id_seq'),
+    night_date date NOT NULL,
+    summary_id varchar(255) REFERENCES sleep_summary (summary_id),
+    stage_type varchar(255),
+    start_time bigint,
+    end_time   bigint,
+    duration   integer,
+    PRIMARY KEY (id, night_date)
+) PARTITION BY RANGE (night_date);
+ALTER SEQUENCE sleep_stage_segments_id_seq OWNED BY sleep_stage_segments.id;
+
+CREATE TABLE sleep_respiration (
+    id               bigint NOT NULL DEFAULT nextval('sleep_respiration_id_seq'),
+    night_date       date NOT NULL,
+    summary_id       varchar(255) REFERENCES sleep_summary (summary_id),
+    offset_seconds   integer,
+    respiration_rate double precision,
+    PRIMARY KEY (id, night_date)
+) PARTITION BY RANGE (night_date);
+ALTER SEQUENCE sleep_respiration_id_seq OWNED BY sleep_respiration.id;
+
+SELECT ensure_sleep_partitions(month)
+FROM (SELECT DISTINCT date_trunc('month', date)::date AS month FROM sleep_summary WHERE date IS NOT NULL) months;
+
+-- 沒有對應 summary 的舊資料無法決定 partition，不搬
+INSERT INTO sleep_stage_segments (id, night_date, summary_id, stage_type, start_time, end_time, duration)
+SELECT s.id, ss.date, s.summary_id, s.stage_type, s.start_time, s.end_time, s.duration
+FROM sleep_stage_segments_heap s
+JOIN sleep_summary ss ON ss.summary_id = s.summary_id
+WHERE ss.date IS NOT NULL;
+
+INSERT INTO sleep_respiration (id, night_date, summary_id, offset_seconds, respiration_rate)
+SELECT r.id, ss.date, r.summary_id, r.offset_seconds, r.respiration_rate
+FROM sleep_respiration_heap r
+JOIN sleep_summary ss ON ss.summary_id = r.summary_id
+WHERE ss.date IS NOT NULL;
+
+DROP TABLE sleep_stage_segments_heap;
+DROP TABLE sleep_respiration_heap;
+
+-- 建在 partitioned table 上的索引會套用到現有與之後建立的每個 partition
+CREATE INDEX idx_stage_summary_start ON sleep_stage_segments (summary_id, start_time);
+CREATE INDEX brin_stage_start_time ON sleep_stage_segments USING brin (start_time);
+CREATE INDEX idx_respiration_summary_offset ON sleep_respiration (summary_id, offset_seconds);
+CREATE INDEX brin_respiration_night_date ON sleep_respiration USING brin (night_date);
+
+ANALYZE sleep_stage_segments;
+ANALYZE sleep_respiration;
@@ -0,0 +1,36 @@
+-- 改用 Flyway 之前以 ddl-auto=update 加上的欄位與資料表：內容雜湊（UPSERT 判斷是否有變更）、
+-- 每晚一個 blob 的呼吸率序列、匯入時計算的每晚統計值。
+-- 依資料庫建立的時間點，這些物件可能全部、部分或完全不存在，因此全部寫成可重複執行。
+
+ALTER TABLE sleep_summary ADD COLUMN IF NOT EXISTS content_hash varchar(64);
+
+CREATE INDEX IF NOT EXISTS idx_summary_date_id ON sleep_summary (date, summary_id);
+
+CREATE TABLE IF NOT EXISTS sleep_respiration_series (
+    summary_id   varchar(255) PRIMARY KEY,
+    sample_count integer,
+    data         bytea
+);
+
+CREATE TABLE IF NOT EXISTS sleep_night_stats (
+    summary_id           varchar(255) PRIMARY KEY,
+    respiration_samples  integer,
+    respiration_mean     double precision,
+    respiration_min      double precision,
+    respiration_max      double precision,
+    respiration_p10      double precision,
+    respiration_p50      double precision,
+    respiration_p90      double precision,
+    deep_segments        integer,
+    light_segments       integer,
+    rem_segments         integer,
+    awake_segments       integer,
+    deep_seconds         integer,
+    light_seconds        integer,
+    rem_seconds          integer,
+    awake_seconds        integer,
+    longest_deep_seconds integer,
+    awakenings           integer,
+    time_in_bed_seconds  integer,
+    sleep_efficiency     double precision
+);
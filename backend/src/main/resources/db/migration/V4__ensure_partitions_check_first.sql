@@ -0,0 +1,33 @@
+-- 匯入每個 chunk 都會呼叫 ensure_sleep_partitions（不再在應用程式記憶體中記住已建立的月份，月份可能已被 DETACH 歸檔）。
+-- 兩個 partition 都已掛在父表上時直接返回、不取得獨佔的 advisory lock，才不會與進行中的寫入交易（共享鎖）互相等待。
+-- 已 DETACH 但尚未 DROP 的同名資料表無法重建，明確報錯，而不是讓之後的 INSERT 以「找不到 partition」失敗。
+
+CREATE OR REPLACE FUNCTION ensure_sleep_partitions(night date) RETURNS void AS $$
+DECLARE
+    month_start date := date_trunc('month', night)::date;
+    suffix      text := to_char(month_start, '"y"YYYY"m"MM');
+    parent      text;
+    child       regclass;
+BEGIN
+    IF NOT EXISTS (
+        SELECT 1
+        FROM unnest(ARRAY['sleep_stage_segments', 'sleep_respiration']) AS p(name)
+        WHERE NOT EXISTS (SELECT 1 FROM pg_inherits
+                          WHERE inhparent = p.name::regclass AND inhrelid = to_regclass(p.name || '_' || suffix))
+    ) THEN
+        RETURN;
+    END IF;
+
+    -- 並行的匯入可能同時建立同一個月份
+    PERFORM pg_advisory_xact_lock(hashtext('ensure_sleep_partitions'));
+    FOREACH parent IN ARRAY ARRAY['sleep_stage_segments', 'sleep_respiration'] LOOP
+        child := to_regclass(parent || '_' || suffix);
+        IF child IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                           parent || '_' || suffix, parent, month_start, (month_start + interval '1 month')::date);
+        ELSIF NOT EXISTS (SELECT 1 FROM pg_inherits WHERE inhparent = parent::regclass AND inhrelid = child) THEN
+            RAISE EXCEPTION '% 已存在但不是 % 的 partition（已 DETACH 尚未歸檔刪除？）', child, parent;
+        END IF;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
@@ -11,10 +11,13 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -43,12 +46,16 @@ public class ChatbotControllerTest {
         );
 
         when(geminiChatService.askGemini(request.getDate(), request.getQuestion()))
-                .thenReturn(mockResponse);
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
 
-        // Act & Assert
-        mockMvc.perform(post("/api/chatbot/query")
+        // Act & Assert：回傳 CompletableFuture，需等非同步結果再 dispatch
+        MvcResult result = mockMvc.perform(post("/api/chatbot-query")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.answer").value("你那天的睡眠品質還不錯"))
                 .andExpect(jsonPath("$.score").value(82));
@@ -0,0 +1,33 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.service.CsvWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CsvWriterTest {
+
+    @Test
+    void testField_quotesOnlyWhenNeededAndWritesNullsAsEmpty() throws IOException {
+        StringWriter out = new StringWriter();
+        new CsvWriter(out)
+                .row("a", "b")
+                .field("plain").field("x,y").field("say \"hi\"").field("line\nbreak")
+                .field((String) null).field((Integer) null).field(42).field(7L).endRow();
+
+        assertEquals("a,b\r\nplain,\"x,y\",\"say \"\"hi\"\"\",\"line\nbreak\",,,42,7\r\n", out.toString());
+    }
+
+    @Test
+    void testFieldCenti_alwaysTwoDecimals() throws IOException {
+        StringWriter out = new StringWriter();
+        new CsvWriter(out)
+                .fieldCenti(14.5).fieldCenti(9.99).fieldCenti(18.07).fieldCenti(0)
+                .fieldCenti(-0.05).fieldCenti(-12.3).fieldCenti(13.004).endRow();
+
+        assertEquals("14.50,9.99,18.07,0.00,-0.05,-12.30,13.00\r\n", out.toString());
+    }
+}
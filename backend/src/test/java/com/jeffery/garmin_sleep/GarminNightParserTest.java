@@ -0,0 +1,108 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.service.GarminNightParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GarminNightParserTest {
+
+    private final GarminNightParser parser = new GarminNightParser();
+
+    @Test
+    void testParse_extractsSummaryStagesAndRespiration() throws Exception {
+        String json = """
+                {"summaryId":"x1-123","calendarDate":"2025-06-02","durationInSeconds":27000,
+                 "deepSleepDurationInSeconds":5400,"lightSleepDurationInSeconds":15000,"remSleepInSeconds":6000,
+                 "awakeDurationInSeconds":600,"unknownField":{"nested":[1,2,3]},
+                 "overallSleepScore":{"value":82,"qualifierKey":"GOOD"},
+                 "sleepLevelsMap":{"deep":[{"startTimeInSeconds":1000,"endTimeInSeconds":1600}],
+                                   "light":[{"startTimeInSeconds":100,"endTimeInSeconds":1000},
+                                            {"startTimeInSeconds":1600,"endTimeInSeconds":2000}]},
+                 "timeOffsetSleepRespiration":{"3600":14.5,"3660":15.0}}
+                """;
+
+        ParsedNight night = parser.parse(json);
+
+        assertEquals("x1-123", night.getSummary().getSummaryId());
+        assertEquals(LocalDate.of(2025, 6, 2), night.getSummary().getDate());
+        assertEquals(27000, night.getSummary().getTotalDuration());
+        assertEquals(82, night.getSummary().getOverallScore());
+        assertEquals("GOOD", night.getSummary().getScoreQualifier());
+
+        assertEquals(3, night.stageCount());
+        assertArrayEquals(new String[]{"deep", "light", "light"}, night.getStageTypes());
+        assertArrayEquals(new long[]{1000, 100, 1600}, night.getStageStarts());
+        assertArrayEquals(new long[]{1600, 1000, 2000}, night.getStageEnds());
+
+        assertArrayEquals(new int[]{3600, 3660}, night.getRespirationOffsets());
+        assertArrayEquals(new double[]{14.5, 15.0}, night.getRespirationRates());
+        assertEquals(6, night.rowCount());
+    }
+
+    @Test
+    void testParse_missingSectionsDefaultLikeTreeModel() throws Exception {
+        ParsedNight night = parser.parse("{\"summaryId\":\"x2\",\"calendarDate\":\"2025-06-03\"}");
+
+        assertEquals(0, night.getSummary().getOverallScore());
+        assertNull(night.getSummary().getScoreQualifier());
+        assertEquals(0, night.stageCount());
+        assertEquals(0, night.respirationCount());
+    }
+
+    @Test
+    void testParse_contentHashIgnoresFieldOrderButTracksValues() throws Exception {
+        String a = "{\"summaryId\":\"x3\",\"calendarDate\":\"2025-06-04\",\"timeOffsetSleepRespiration\":{\"60\":14.0}}";
+        String b = "{\"timeOffsetSleepRespiration\":{\"60\":14.0},\"calendarDate\":\"2025-06-04\",\"summaryId\":\"x3\"}";
+        String c = "{\"summaryId\":\"x3\",\"calendarDate\":\"2025-06-04\",\"timeOffsetSleepRespiration\":{\"60\":14.5}}";
+
+        String hashA = parser.parse(a).getSummary().getContentHash();
+
+        assertEquals(64, hashA.length());
+        assertEquals(hashA, parser.parse(b).getSummary().getContentHash());
+        assertNotEquals(hashA, parser.parse(c).getSummary().getContentHash());
+    }
+
+    @Test
+    void testParse_contentHashKeepsStringBoundaries() throws Exception {
+        String a = "{\"summaryId\":\"x4\",\"calendarDate\":\"2025-06-05\",\"overallSleepScore\":{\"qualifierKey\":\"AB\"},"
+                + "\"sleepLevelsMap\":{\"C\":[{\"startTimeInSeconds\":0,\"endTimeInSeconds\":60}]}}";
+        String b = "{\"summaryId\":\"x4\",\"calendarDate\":\"2025-06-05\",\"overallSleepScore\":{\"qualifierKey\":\"A\"},"
+                + "\"sleepLevelsMap\":{\"BC\":[{\"startTimeInSeconds\":0,\"endTimeInSeconds\":60}]}}";
+        String emptyQualifier = "{\"summaryId\":\"x4\",\"calendarDate\":\"2025-06-05\",\"overallSleepScore\":{\"qualifierKey\":\"\"}}";
+        String noQualifier = "{\"summaryId\":\"x4\",\"calendarDate\":\"2025-06-05\"}";
+
+        assertNotEquals(parser.parse(a).getSummary().getContentHash(), parser.parse(b).getSummary().getContentHash());
+        assertNotEquals(parser.parse(emptyQualifier).getSummary().getContentHash(),
+                parser.parse(noQualifier).getSummary().getContentHash());
+    }
+
+    @Test
+    void testParse_rejectsMalformedStagesInsteadOfDroppingLaterFields() {
+        // 階段陣列中的 null 不能讓 parser 停在陣列裡，之後的呼吸率等欄位被當成頂層欄位讀錯
+        String nullElement = """
+                {"summaryId":"x5","calendarDate":"2025-06-06",
+                 "sleepLevelsMap":{"deep":[{"startTimeInSeconds":0,"endTimeInSeconds":60}, null,
+                                           {"startTimeInSeconds":60,"endTimeInSeconds":120}]},
+                 "timeOffsetSleepRespiration":{"60":14.0}}
+                """;
+        String nestedValue = """
+                {"summaryId":"x6","calendarDate":"2025-06-06",
+                 "sleepLevelsMap":{"deep":[{"startTimeInSeconds":{"v":0},"endTimeInSeconds":60}]},
+                 "timeOffsetSleepRespiration":{"60":14.0}}
+                """;
+
+        assertThrows(IOException.class, () -> parser.parse(nullElement));
+        assertThrows(IOException.class, () -> parser.parse(nestedValue));
+        assertThrows(IOException.class, () -> parser.parse("{\"summaryId\":\"x7\",\"durationInSeconds\":[1,2],\"calendarDate\":\"2025-06-06\"}"));
+    }
+
+    @Test
+    void testParse_rejectsMissingSummaryId() {
+        assertThrows(IOException.class, () -> parser.parse("{\"calendarDate\":\"2025-06-03\"}"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.service.GeminiAnswerCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeminiAnswerCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final GeminiAnswerCache cache = new GeminiAnswerCache(registry, 100, Duration.ofMinutes(5));
+
+    @Test
+    void testGet_repeatPromptIsServedFromCache() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("a1", cache.get("prompt", () -> CompletableFuture.completedFuture("a" + calls.incrementAndGet())).join());
+        assertEquals("a1", cache.get("prompt", () -> CompletableFuture.completedFuture("a" + calls.incrementAndGet())).join());
+        assertEquals("a2", cache.get("other prompt", () -> CompletableFuture.completedFuture("a" + calls.incrementAndGet())).join());
+
+        assertEquals(2, calls.get());
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", GeminiAnswerCache.CACHE_NAME)
+                .tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void testGet_identicalPromptsInFlightShareOneUpstreamCall() {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+
+        List<CompletableFuture<String>> answers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            answers.add(cache.get("same", () -> {
+                calls.incrementAndGet();
+                return upstream;
+            }));
+        }
+        upstream.complete("answer");
+
+        for (CompletableFuture<String> answer : answers) {
+            assertEquals("answer", answer.join());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testGet_failuresAreNotCached() {
+        CompletableFuture<String> failed = cache.get("prompt",
+                () -> CompletableFuture.failedFuture(new IllegalStateException("upstream down")));
+        assertThrows(CompletionException.class, failed::join);
+
+        assertThrows(CompletionException.class, cache.get("thrown", () -> {
+            throw new IllegalStateException("thrown synchronously");
+        })::join);
+
+        assertEquals("ok", cache.get("prompt", () -> CompletableFuture.completedFuture("ok")).join());
+    }
+}
@@ -0,0 +1,304 @@
+package com.jeffery.garmin_sleep;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jeffery.garmin_sleep.service.GeminiBusyException;
+import com.jeffery.garmin_sleep.service.GeminiClient;
+import com.jeffery.garmin_sleep.service.GeminiUpstreamException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 以本機 stub Gemini server 驗證 GeminiClient 的重試、逾時、同時請求上限與 SSE 串流。
+ */
+public class GeminiClientTest {
+
+    private static final String ANSWER = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"stub answer\"}]}}]}";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile StubBehaviour behaviour;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    interface StubBehaviour {
+        void handle(HttpExchange exchange, int requestNumber) throws Exception;
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/gemini", exchange -> {
+            int number = requests.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                exchange.getRequestBody().readAllBytes();
+                behaviour.handle(exchange, number);
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private GeminiClient client(Duration requestTimeout, int maxConcurrent, int maxRetries) {
+        return client(requestTimeout, Duration.ofSeconds(10), maxConcurrent, maxRetries);
+    }
+
+    private GeminiClient client(Duration requestTimeout, Duration streamTimeout, int maxConcurrent, int maxRetries) {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        return new GeminiClient(new ObjectMapper(), meterRegistry, base + "/gemini", base + "/gemini?alt=sse",
+                Duration.ofSeconds(2), requestTimeout, streamTimeout, maxConcurrent, maxRetries, Duration.ofMillis(20));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    @Test
+    void testGenerate_retriesOn429And5xxThenSucceeds() {
+        behaviour = (exchange, n) -> {
+            if (n == 1) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                respond(exchange, 429, "");
+            } else if (n == 2) {
+                respond(exchange, 503, "");
+            } else {
+                respond(exchange, 200, ANSWER);
+            }
+        };
+
+        assertEquals("stub answer", client(Duration.ofSeconds(2), 4, 2).generate("hi").join());
+        assertEquals(3, requests.get());
+        // 每次上游請求各記一筆，prompt 大小只記一次
+        assertEquals(1, meterRegistry.get("gemini.upstream").tag("status", "429").timer().count());
+        assertEquals(1, meterRegistry.get("gemini.upstream").tag("status", "503").timer().count());
+        assertEquals(1, meterRegistry.get("gemini.upstream").tag("status", "200").timer().count());
+        assertEquals(1, meterRegistry.get("gemini.prompt.size").summary().count());
+    }
+
+    @Test
+    void testGenerate_givesUpAfterMaxRetriesAndDoesNotRetry4xx() {
+        behaviour = (exchange, n) -> respond(exchange, 500, "");
+        GeminiClient client = client(Duration.ofSeconds(2), 4, 2);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> client.generate("hi").join());
+        assertEquals(500, ((GeminiUpstreamException) e.getCause()).getStatusCode());
+        assertEquals(3, requests.get());
+
+        behaviour = (exchange, n) -> respond(exchange, 400, "");
+        assertThrows(CompletionException.class, () -> client.generate("hi").join());
+        assertEquals(4, requests.get());
+        assertEquals(4, client.availablePermits());
+    }
+
+    @Test
+    void testGenerate_timesOutSlowUpstream() {
+        behaviour = (exchange, n) -> {
+            Thread.sleep(2000);
+            respond(exchange, 200, ANSWER);
+        };
+        GeminiClient client = client(Duration.ofMillis(200), 4, 2);
+
+        long started = System.nanoTime();
+        CompletionException e = assertThrows(CompletionException.class, () -> client.generate("hi").join());
+        assertInstanceOf(HttpTimeoutException.class, e.getCause());
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(4, client.availablePermits());
+    }
+
+    @Test
+    void testGenerate_saturationRejectsExcessCallsWithoutWaiting() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        behaviour = (exchange, n) -> {
+            release.await(5, TimeUnit.SECONDS);
+            respond(exchange, 200, ANSWER);
+        };
+        GeminiClient client = client(Duration.ofSeconds(5), 2, 0);
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            calls.add(client.generate("hi " + i));
+        }
+
+        // 超過上限的 4 個呼叫立即失敗，不必等上游
+        long rejected = calls.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+        assertEquals(4, rejected);
+        assertEquals(4, meterRegistry.get("gemini.rejected").counter().count());
+        for (CompletableFuture<String> call : calls.subList(2, 6)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> call.get(0, TimeUnit.SECONDS));
+            assertInstanceOf(GeminiBusyException.class, e.getCause());
+        }
+
+        // 兩個請求都到達 stub 後才放行，確認上游同時只看到 2 個請求
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        assertEquals("stub answer", calls.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals("stub answer", calls.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(2, client.availablePermits());
+        assertEquals(2, client.availablePermits());
+
+        // 釋放後可以再次呼叫
+        assertEquals("stub answer", client.generate("again").get(5, TimeUnit.SECONDS));
+    }
+
+    private static String sseEvent(String text) {
+        return "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}\r\n\r\n";
+    }
+
+    @Test
+    void testStream_relaysChunksAsTheyArrive() throws Exception {
+        behaviour = (exchange, n) -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            var body = exchange.getResponseBody();
+            for (String chunk : List.of("Hello", ", ", "sleeper")) {
+                body.write(sseEvent(chunk).getBytes(StandardCharsets.UTF_8));
+                body.flush();
+                Thread.sleep(300);
+            }
+        };
+        GeminiClient client = client(Duration.ofSeconds(5), 2, 0);
+        List<String> chunks = new CopyOnWriteArrayList<>();
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        long started = System.nanoTime();
+
+        client.stream("hi", text -> {
+            chunks.add(text);
+            arrivals.add(System.nanoTime() - started);
+        }).get(5, TimeUnit.SECONDS);
+        long total = System.nanoTime() - started;
+
+        assertEquals(List.of("Hello", ", ", "sleeper"), chunks);
+        // 第一段在上游產生完整回答之前就已送達
+        assertTrue(total - arrivals.get(0) > TimeUnit.MILLISECONDS.toNanos(500),
+                "first chunk at " + arrivals.get(0) / 1_000_000 + " ms, total " + total / 1_000_000 + " ms");
+        assertEquals(2, client.availablePermits());
+    }
+
+    @Test
+    void testStream_retriesBeforeFirstChunkAndStopsWhenConsumerFails() throws Exception {
+        behaviour = (exchange, n) -> {
+            if (n == 1) {
+                respond(exchange, 503, "");
+                return;
+            }
+            exchange.sendResponseHeaders(200, 0);
+            for (int i = 0; i < 20; i++) {
+                exchange.getResponseBody().write(sseEvent("part" + i).getBytes(StandardCharsets.UTF_8));
+                exchange.getResponseBody().flush();
+                Thread.sleep(50);
+            }
+        };
+        GeminiClient client = client(Duration.ofSeconds(5), 2, 2);
+        List<String> chunks = new CopyOnWriteArrayList<>();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> client.stream("hi", text -> {
+            chunks.add(text);
+            if (chunks.size() == 2) {
+                throw new IllegalStateException("browser went away");
+            }
+        }).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(List.of("part0", "part1"), chunks);
+        assertEquals(2, requests.get());
+        assertEquals(2, client.availablePermits());
+    }
+
+    @Test
+    void testStream_stalledUpstreamTimesOutAndFreesPermit() throws Exception {
+        CountDownLatch upstreamClosed = new CountDownLatch(1);
+        behaviour = (exchange, n) -> {
+            exchange.sendResponseHeaders(200, 0);
+            var body = exchange.getResponseBody();
+            body.write(sseEvent("first").getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            // 上游在回答中途停住；client 取消串流後寫入失敗
+            try {
+                for (int i = 0; i < 100; i++) {
+                    Thread.sleep(100);
+                    body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            } catch (IOException e) {
+                upstreamClosed.countDown();
+            }
+        };
+        GeminiClient client = client(Duration.ofSeconds(5), Duration.ofMillis(500), 1, 0);
+        List<String> chunks = new CopyOnWriteArrayList<>();
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> client.stream("hi", chunks::add).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals(List.of("first"), chunks);
+        assertEquals(1, client.availablePermits());
+        assertTrue(upstreamClosed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testStream_cancelByCallerClosesUpstreamAndFreesPermit() throws Exception {
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch upstreamClosed = new CountDownLatch(1);
+        behaviour = (exchange, n) -> {
+            exchange.sendResponseHeaders(200, 0);
+            var body = exchange.getResponseBody();
+            body.write(sseEvent("first").getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            firstSent.countDown();
+            try {
+                for (int i = 0; i < 100; i++) {
+                    Thread.sleep(100);
+                    body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            } catch (IOException e) {
+                upstreamClosed.countDown();
+            }
+        };
+        GeminiClient client = client(Duration.ofSeconds(5), Duration.ofSeconds(30), 1, 0);
+
+        CompletableFuture<Void> stream = client.stream("hi", text -> { });
+        assertTrue(firstSent.await(5, TimeUnit.SECONDS));
+        assertEquals(0, client.availablePermits());
+        // 相當於 SseEmitter 逾時或用戶端斷線時的 onTimeout / onCompletion
+        stream.cancel(true);
+
+        assertEquals(1, client.availablePermits());
+        assertTrue(upstreamClosed.await(5, TimeUnit.SECONDS));
+    }
+}
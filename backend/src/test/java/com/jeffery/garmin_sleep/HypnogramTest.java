@@ -0,0 +1,85 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.model.Hypnogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HypnogramTest {
+
+    // L 0-600, D 600-1800, 空隙 1800-2000, R 2000-2600, L 2600-3000
+    private static final Hypnogram NIGHT = new Hypnogram(
+            new String[]{"light", "deep", "rem", "light"},
+            new long[]{0, 600, 2000, 2600},
+            new long[]{600, 1800, 2600, 3000});
+
+    @Test
+    void testStageAt_returnsStageOrMinusOneInGaps() {
+        assertEquals(Hypnogram.LIGHT, NIGHT.stageAt(0));
+        assertEquals(Hypnogram.DEEP, NIGHT.stageAt(600));
+        assertEquals(Hypnogram.DEEP, NIGHT.stageAt(1799));
+        assertEquals(-1, NIGHT.stageAt(1800));
+        assertEquals(-1, NIGHT.stageAt(-1));
+        assertEquals(-1, NIGHT.stageAt(3000));
+    }
+
+    @Test
+    void testSecondsIn_clipsPartialSegmentsAtBothEnds() {
+        assertEquals(900, NIGHT.secondsIn(Hypnogram.DEEP, 900, 2500));
+        assertEquals(500, NIGHT.secondsIn(Hypnogram.REM, 900, 2500));
+        assertEquals(0, NIGHT.secondsIn(Hypnogram.LIGHT, 900, 2500));
+        // 單一片段內的區間
+        assertEquals(100, NIGHT.secondsIn(Hypnogram.DEEP, 1000, 1100));
+        assertEquals(0, NIGHT.secondsIn(Hypnogram.DEEP, 1850, 1950));
+        assertEquals(1000, NIGHT.secondsIn(Hypnogram.LIGHT, -100, 5000));
+        assertEquals(NIGHT.totalSeconds(Hypnogram.LIGHT), NIGHT.secondsIn(Hypnogram.LIGHT, NIGHT.start(), NIGHT.end()));
+    }
+
+    @Test
+    void testConstructor_trimsOverlapsAndDropsEmptySegments() {
+        Hypnogram hypnogram = new Hypnogram(
+                new String[]{"light", "deep", "rem", "awake"},
+                new long[]{0, 500, 900, 1200},
+                new long[]{600, 900, 900, 1500});
+
+        assertEquals(3, hypnogram.size());
+        assertEquals(600, hypnogram.startOf(1));
+        assertEquals(300, hypnogram.totalSeconds(Hypnogram.DEEP));
+        assertEquals(Hypnogram.AWAKE, hypnogram.stageOf(2));
+    }
+
+    @Test
+    void testSecondsIn_matchesLinearScanOnRandomNights() {
+        Random random = new Random(7);
+        for (int night = 0; night < 50; night++) {
+            int n = 1 + random.nextInt(60);
+            String[] types = new String[n];
+            long[] starts = new long[n];
+            long[] ends = new long[n];
+            long t = 0;
+            for (int i = 0; i < n; i++) {
+                t += random.nextInt(3) == 0 ? random.nextInt(300) : 0;
+                types[i] = Hypnogram.name(random.nextInt(Hypnogram.STAGE_COUNT));
+                starts[i] = t;
+                t += 60 + random.nextInt(1800);
+                ends[i] = t;
+            }
+            Hypnogram hypnogram = new Hypnogram(types, starts, ends);
+
+            for (int q = 0; q < 20; q++) {
+                long from = random.nextInt((int) t + 600) - 300;
+                long to = from + random.nextInt((int) t + 1);
+                int stage = random.nextInt(Hypnogram.STAGE_COUNT);
+                long expected = 0;
+                for (int i = 0; i < n; i++) {
+                    if (Hypnogram.stageOf(types[i]) == stage) {
+                        expected += Math.max(0, Math.min(ends[i], to) - Math.max(starts[i], from));
+                    }
+                }
+                assertEquals(expected, hypnogram.secondsIn(stage, from, to), "night " + night + " query " + q);
+            }
+        }
+    }
+}
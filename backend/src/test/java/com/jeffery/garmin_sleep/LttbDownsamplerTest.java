@@ -0,0 +1,55 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.service.LttbDownsampler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LttbDownsamplerTest {
+
+    private static List<double[]> run(int total, int threshold, double[] rates) {
+        List<double[]> out = new ArrayList<>();
+        LttbDownsampler lttb = new LttbDownsampler(total, threshold,
+                (day, offset, rate) -> out.add(new double[]{day, offset, rate}));
+        for (int i = 0; i < rates.length; i++) {
+            // 每晚 480 個樣本，跨日時 offset 重新起算
+            lttb.add(20000 + i / 480, -3600 + (i % 480) * 60, rates[i]);
+        }
+        lttb.finish();
+        return out;
+    }
+
+    @Test
+    void testDownsample_emitsExactlyThresholdPointsKeepingEndsAndPeak() {
+        int n = 480 * 90;
+        double[] rates = new double[n];
+        for (int i = 0; i < n; i++) {
+            rates[i] = 15 + Math.sin(i / 50.0);
+        }
+        rates[12345] = 30;
+
+        List<double[]> out = run(n, 500, rates);
+
+        assertEquals(500, out.size());
+        assertArrayEquals(new double[]{20000, -3600, rates[0]}, out.get(0));
+        assertArrayEquals(new double[]{20089, -3600 + 479 * 60, rates[n - 1]}, out.get(499));
+        assertTrue(out.stream().anyMatch(p -> p[2] == 30), "spike should survive downsampling");
+        for (int i = 1; i < out.size(); i++) {
+            double prev = out.get(i - 1)[0] * 86400 + out.get(i - 1)[1];
+            assertTrue(out.get(i)[0] * 86400 + out.get(i)[1] > prev);
+        }
+    }
+
+    @Test
+    void testDownsample_passesThroughWhenUnderBudget() {
+        double[] rates = {14, 15, 16};
+
+        List<double[]> out = run(3, 10, rates);
+
+        assertEquals(3, out.size());
+        assertEquals(16, out.get(2)[2]);
+    }
+}
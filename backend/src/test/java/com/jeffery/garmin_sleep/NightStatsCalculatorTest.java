@@ -0,0 +1,52 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.model.SleepNightStats;
+import com.jeffery.garmin_sleep.service.NightStatsCalculator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NightStatsCalculatorTest {
+
+    @Test
+    void testCompute_respirationMeanRangeAndPercentiles() {
+        double[] rates = new double[100];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = 10 + i * 0.1;
+        }
+
+        SleepNightStats stats = NightStatsCalculator.compute("x1", new String[0], new long[0], new long[0], rates);
+
+        assertEquals(100, stats.getRespirationSamples());
+        assertEquals(14.95, stats.getRespirationMean(), 1e-9);
+        assertEquals(10.0, stats.getRespirationMin());
+        assertEquals(19.9, stats.getRespirationMax(), 1e-9);
+        assertEquals(10.9, stats.getRespirationP10(), 1e-9);
+        assertEquals(14.9, stats.getRespirationP50(), 1e-9);
+        assertEquals(18.9, stats.getRespirationP90(), 1e-9);
+        assertNull(stats.getTimeInBedSeconds());
+    }
+
+    @Test
+    void testCompute_stagesOutOfOrder() {
+        // 依時間排序後：awake light deep deep awake rem awake
+        String[] types = {"rem", "awake", "light", "deep", "deep", "awake", "awake"};
+        long[] starts = {4000, 0, 100, 1000, 1600, 3700, 5000};
+        long[] ends = {5000, 100, 1000, 1600, 3700, 4000, 5400};
+
+        SleepNightStats stats = NightStatsCalculator.compute("x1", types, starts, ends, new double[0]);
+
+        assertEquals(2, stats.getDeepSegments());
+        assertEquals(3, stats.getAwakeSegments());
+        assertEquals(2700, stats.getDeepSeconds());
+        assertEquals(800, stats.getAwakeSeconds());
+        // 兩個相鄰的 deep 片段合併成一段
+        assertEquals(2700, stats.getLongestDeepSeconds());
+        // 入睡前與最後的清醒不算醒來
+        assertEquals(1, stats.getAwakenings());
+        assertEquals(5400, stats.getTimeInBedSeconds());
+        assertEquals(4600.0 / 5400, stats.getSleepEfficiency(), 1e-9);
+        assertEquals(0, stats.getRespirationSamples());
+        assertNull(stats.getRespirationMean());
+    }
+}
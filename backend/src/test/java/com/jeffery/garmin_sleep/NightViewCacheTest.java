@@ -0,0 +1,81 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.service.NightViewCache;
+import com.jeffery.garmin_sleep.service.NightsWrittenEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NightViewCacheTest {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 6, 2);
+
+    @Test
+    void testFindAll_invalidationDuringLoadIsNotOverwrittenByStaleResult() throws Exception {
+        AtomicReference<String> storedHash = new AtomicReference<>("a".repeat(64));
+        AtomicInteger queries = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate() {
+            @Override
+            public <T> List<T> query(String sql, PreparedStatementSetter pss, RowMapper<T> rowMapper) {
+                try {
+                    // 讀到資料後才停住，模擬匯入提交前讀取、提交後才放進快取
+                    T row = rowMapper.mapRow(row(storedHash.get()), 0);
+                    if (queries.incrementAndGet() == 1) {
+                        loading.countDown();
+                        assertTrue(release.await(5, TimeUnit.SECONDS));
+                    }
+                    return List.of(row);
+                } catch (SQLException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void query(String sql, PreparedStatementSetter pss, RowCallbackHandler rch) {
+                // 沒有呼吸率資料
+            }
+        };
+        NightViewCache cache = new NightViewCache(jdbcTemplate, new SimpleMeterRegistry(), 100, Duration.ZERO);
+
+        CompletableFuture<List<NightContext>> inFlight = CompletableFuture.supplyAsync(() -> cache.findAll(List.of(DATE)));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        storedHash.set("b".repeat(64));
+        cache.onNightsWritten(new NightsWrittenEvent(List.of("x1"), List.of(DATE)));
+        release.countDown();
+
+        assertEquals("a".repeat(64), inFlight.get(5, TimeUnit.SECONDS).get(0).getSummary().getContentHash());
+        assertEquals("b".repeat(64), cache.findAll(List.of(DATE)).get(0).getSummary().getContentHash());
+        assertEquals("b".repeat(64), cache.find(DATE).orElseThrow().getSummary().getContentHash());
+        assertEquals(2, queries.get());
+    }
+
+    private static ResultSet row(String contentHash) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("summary_id")).thenReturn("x1");
+        when(rs.getDate("date")).thenReturn(Date.valueOf(DATE));
+        when(rs.getString("content_hash")).thenReturn(contentHash);
+        return rs;
+    }
+}
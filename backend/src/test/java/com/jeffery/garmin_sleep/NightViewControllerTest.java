@@ -0,0 +1,157 @@
+package com.jeffery.garmin_sleep;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.jeffery.garmin_sleep.config.WebConfig;
+import com.jeffery.garmin_sleep.controller.BackendController;
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import com.jeffery.garmin_sleep.repository.SleepSummaryRepository;
+import com.jeffery.garmin_sleep.service.NightStatsCalculator;
+import com.jeffery.garmin_sleep.service.NightViewCache;
+import com.jeffery.garmin_sleep.service.RangeAnalyticsService;
+import com.jeffery.garmin_sleep.service.SleepAnomalyService;
+import com.jeffery.garmin_sleep.service.SleepExportService;
+import com.jeffery.garmin_sleep.service.SleepSummaryQueryService;
+import com.jeffery.garmin_sleep.service.UploadJobService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(BackendController.class)
+public class NightViewControllerTest {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 6, 2);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private NightViewCache nightViewCache;
+    @MockBean
+    private SleepSummaryRepository sleepSummaryRepository;
+    @MockBean
+    private RangeAnalyticsService rangeAnalyticsService;
+    @MockBean
+    private SleepSummaryQueryService sleepSummaryQueryService;
+    @MockBean
+    private UploadJobService uploadJobService;
+    @MockBean
+    private SleepAnomalyService sleepAnomalyService;
+    @MockBean
+    private SleepExportService sleepExportService;
+
+    @BeforeEach
+    void setUp() {
+        SleepSummary summary = new SleepSummary();
+        summary.setSummaryId("s1");
+        summary.setDate(DATE);
+        summary.setOverallScore(82);
+        String[] types = {"light", "deep"};
+        long[] starts = {1_749_250_000L, 1_749_250_600L};
+        long[] ends = {1_749_250_600L, 1_749_252_400L};
+        NightContext night = new NightContext(summary,
+                NightStatsCalculator.compute("s1", types, starts, ends, new double[]{14.0}),
+                types, starts, ends,
+                new RespirationSeries("s1", DATE, new int[]{-3600}, new double[]{14.0}), "abc123");
+
+        when(nightViewCache.find(any())).thenReturn(Optional.empty());
+        when(nightViewCache.find(DATE)).thenReturn(Optional.of(night));
+        when(nightViewCache.getCacheControl()).thenReturn(CacheControl.maxAge(Duration.ZERO).cachePrivate().mustRevalidate());
+    }
+
+    @Test
+    void testGetStages_returnsEtagAndCacheControl() throws Exception {
+        mockMvc.perform(get("/api/sleep-stages/2025-06-02"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"abc123-stages\""))
+                .andExpect(header().string("Cache-Control", "max-age=0, must-revalidate, private"))
+                .andExpect(jsonPath("$[1].stageType").value("deep"))
+                .andExpect(jsonPath("$[1].duration").value(1800));
+    }
+
+    @Test
+    void testGetStats_matchingIfNoneMatchReturns304() throws Exception {
+        mockMvc.perform(get("/api/sleep-stats/2025-06-02").header("If-None-Match", "\"abc123-stats\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        mockMvc.perform(get("/api/sleep-stats/2025-06-02").header("If-None-Match", "\"abc123-stages\""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deepSeconds").value(1800));
+    }
+
+    @Test
+    void testGetStageWindow_countsSecondsPerStageInsideWindow() throws Exception {
+        // 片段從 1_749_250_000 開始：light 10 分鐘後 deep 30 分鐘；未帶 from / to 時為整晚
+        mockMvc.perform(get("/api/sleep-stages/2025-06-02/window"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"abc123-window\""))
+                .andExpect(jsonPath("$.from").value(1_749_250_000L))
+                .andExpect(jsonPath("$.deepSeconds").value(1800))
+                .andExpect(jsonPath("$.lightSeconds").value(600))
+                .andExpect(jsonPath("$.stageAt").doesNotExist());
+
+        mockMvc.perform(get("/api/sleep-stages/2025-06-02/window").param("from", "03:00").param("to", "02:00"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetRespiration_columnarJsonHoistsSharedFields() throws Exception {
+        mockMvc.perform(get("/api/sleep-respiration/2025-06-02").accept(WebConfig.COLUMNAR_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(WebConfig.COLUMNAR_JSON_VALUE))
+                .andExpect(header().string("ETag", "W/\"abc123-respiration-columnar\""))
+                .andExpect(header().string("Vary", "Accept"))
+                .andExpect(jsonPath("$.summaryId").value("s1"))
+                .andExpect(jsonPath("$.date").value("2025-06-02"))
+                .andExpect(jsonPath("$.offsetSeconds[0]").value(-3600))
+                .andExpect(jsonPath("$.respirationRateCenti[0]").value(1400));
+
+        // 未指定格式時維持逐筆陣列
+        mockMvc.perform(get("/api/sleep-respiration/2025-06-02").accept(MediaType.APPLICATION_JSON))
+                .andExpect(header().string("ETag", "W/\"abc123-respiration\""))
+                .andExpect(jsonPath("$[0].summaryId").value("s1"));
+    }
+
+    @Test
+    void testGetStages_cborCarriesSameColumns() throws Exception {
+        byte[] body = mockMvc.perform(get("/api/sleep-stages/2025-06-02").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode columns = new CBORMapper().readTree(body);
+        assertEquals("s1", columns.path("summaryId").asText());
+        assertEquals("deep", columns.path("stageType").path(1).asText());
+        assertEquals(1_749_250_600L, columns.path("startTime").path(1).asLong());
+        assertEquals(1_749_252_400L, columns.path("endTime").path(1).asLong());
+    }
+
+    @Test
+    void testMissingNight_keepsEmptyResponsesWithoutEtag() throws Exception {
+        mockMvc.perform(get("/api/sleep-respiration/2025-06-03"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"))
+                .andExpect(content().json("[]"));
+
+        mockMvc.perform(get("/api/sleep-stats/2025-06-03"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,59 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.config.MdcTaskDecorator;
+import com.jeffery.garmin_sleep.config.RequestSummaryFilter;
+import jakarta.servlet.http.HttpServlet;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestSummaryFilterTest {
+
+    private final RequestSummaryFilter filter = new RequestSummaryFilter(1.0, Duration.ofSeconds(1));
+
+    @Test
+    void testFilter_reusesValidRequestIdAndClearsMdc() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/test");
+        request.addHeader(RequestSummaryFilter.HEADER, "abc-123");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        AtomicReference<String> seen = new AtomicReference<>();
+
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+        }, (req, res, chain) -> seen.set(MDC.get(RequestSummaryFilter.TRACE_ID))));
+
+        assertEquals("abc-123", seen.get());
+        assertEquals("abc-123", response.getHeader(RequestSummaryFilter.HEADER));
+        assertNull(MDC.get(RequestSummaryFilter.TRACE_ID));
+    }
+
+    @Test
+    void testFilter_replacesInvalidRequestId() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/test");
+        request.addHeader(RequestSummaryFilter.HEADER, "bad id\n");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertTrue(response.getHeader(RequestSummaryFilter.HEADER).matches("[0-9a-f]{16}"));
+    }
+
+    @Test
+    void testMdcTaskDecorator_carriesTraceIdAndRestores() {
+        MDC.put(RequestSummaryFilter.TRACE_ID, "t1");
+        Runnable decorated = new MdcTaskDecorator().decorate(
+                () -> assertEquals("t1", MDC.get(RequestSummaryFilter.TRACE_ID)));
+        MDC.put(RequestSummaryFilter.TRACE_ID, "t2");
+
+        decorated.run();
+
+        assertEquals("t2", MDC.get(RequestSummaryFilter.TRACE_ID));
+        MDC.clear();
+    }
+}
@@ -0,0 +1,58 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.model.RespirationSeries;
+import com.jeffery.garmin_sleep.service.RespirationCodec;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RespirationCodecTest {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 6, 2);
+
+    @Test
+    void testRoundTrip_sortsByOffsetAndKeepsCentiBpmPrecision() {
+        int[] offsets = {-3540, -3600, 7200, 0};
+        double[] rates = {14.25, 13.5, 18.07, 9.99};
+
+        RespirationSeries decoded = RespirationCodec.decode("x1", DATE,
+                RespirationCodec.encode(offsets, rates));
+
+        assertEquals("x1", decoded.getSummaryId());
+        assertEquals(DATE, decoded.getDate());
+        assertArrayEquals(new int[]{-3600, -3540, 0, 7200}, decoded.getOffsets());
+        assertArrayEquals(new double[]{13.5, 14.25, 9.99, 18.07}, decoded.getRates(), 1e-9);
+    }
+
+    @Test
+    void testEncode_fullNightIsMuchSmallerThanRows() {
+        int n = 480;
+        int[] offsets = new int[n];
+        double[] rates = new double[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = -3600 + i * 60;
+            rates[i] = 14 + Math.sin(i / 20.0) * 2;
+        }
+
+        byte[] encoded = RespirationCodec.encode(offsets, rates);
+
+        // 每筆樣本原始 payload 為 int + double = 12 bytes
+        assertTrue(encoded.length < n * 12 / 4, "encoded size " + encoded.length);
+        assertArrayEquals(offsets, RespirationCodec.decode("x1", DATE, encoded).getOffsets());
+    }
+
+    @Test
+    void testRoundTrip_emptySeries() {
+        RespirationSeries decoded = RespirationCodec.decode("x1", DATE,
+                RespirationCodec.encode(new int[0], new double[0]));
+
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    void testDecode_rejectsUnknownVersion() {
+        assertThrows(IllegalArgumentException.class, () -> RespirationCodec.decode("x1", DATE, new byte[]{9, 0}));
+    }
+}
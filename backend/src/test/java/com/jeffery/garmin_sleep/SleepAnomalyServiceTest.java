@@ -0,0 +1,179 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.dto.SleepAnomaly;
+import com.jeffery.garmin_sleep.service.NightsWrittenEvent;
+import com.jeffery.garmin_sleep.service.SleepAnomalyService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SleepAnomalyServiceTest {
+
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+
+    // (date, summary_id) 排序的 sleep_summary，值為 overall_score, deep, light, rem, respiration_mean
+    private final NavigableMap<String, Object[]> db = new ConcurrentSkipListMap<>();
+    // 每次歷史掃描的起點（不含）
+    private final List<LocalDate> scansAfter = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch blockScan;
+    private final CountDownLatch scanning = new CountDownLatch(1);
+
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate() {
+        @Override
+        public void query(PreparedStatementCreator psc, RowCallbackHandler rch) {
+            try {
+                PreparedStatement ps = mock(PreparedStatement.class);
+                Connection connection = mock(Connection.class);
+                when(connection.prepareStatement(anyString())).thenReturn(ps);
+                Date[] after = new Date[1];
+                doAnswer(invocation -> after[0] = invocation.getArgument(1)).when(ps).setDate(eq(1), any(Date.class));
+                psc.createPreparedStatement(connection);
+                scansAfter.add(after[0].toLocalDate());
+                if (blockScan != null) {
+                    scanning.countDown();
+                    assertTrue(blockScan.await(5, TimeUnit.SECONDS));
+                }
+                for (Object[] night : db.values()) {
+                    if (((LocalDate) night[0]).isAfter(after[0].toLocalDate())) {
+                        rch.processRow(row(night));
+                    }
+                }
+            } catch (SQLException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private SleepAnomalyService newService() {
+        return new SleepAnomalyService(jdbcTemplate, mock(PlatformTransactionManager.class), new SimpleMeterRegistry(),
+                0.1, 2.5, 14, 10);
+    }
+
+    @Test
+    void testFindAnomalies_backfillAndPartialReplayMatchFullRebuild() {
+        Random random = new Random(7);
+        for (int day = 0; day < 200; day++) {
+            if (day < 60 || day >= 90) {
+                put(day, random, 0);
+            }
+        }
+        SleepAnomalyService service = newService();
+        assertFalse(service.findAnomalies(null, null).isEmpty());
+        assertEquals(1, scansAfter.size());
+
+        // 基準之後的新夜晚只掃描基準之後
+        for (int day = 200; day < 220; day++) {
+            put(day, random, 0);
+        }
+        written(service, 200, 220);
+        service.findAnomalies(null, null);
+        assertEquals(START.plusDays(199), scansAfter.get(1));
+
+        // 補傳中間缺的 30 晚，兩個 chunk 先晚後早
+        for (int day = 75; day < 90; day++) {
+            put(day, random, 0);
+        }
+        written(service, 75, 90);
+        for (int day = 60; day < 75; day++) {
+            put(day, random, 0);
+        }
+        written(service, 60, 75);
+        service.findAnomalies(null, null);
+        assertEquals(3, scansAfter.size());
+        assertTrue(scansAfter.get(2).isAfter(START) && scansAfter.get(2).isBefore(START.plusDays(60)),
+                "從 checkpoint 重新計算，實際起點 " + scansAfter.get(2));
+
+        // 重新上傳其中 10 晚，數值改變
+        for (int day = 150; day < 160; day++) {
+            put(day, random, -25);
+        }
+        written(service, 150, 160);
+        List<SleepAnomaly> incremental = service.findAnomalies(null, null);
+        assertTrue(scansAfter.get(3).isAfter(START.plusDays(60)) && scansAfter.get(3).isBefore(START.plusDays(150)),
+                "從 checkpoint 重新計算，實際起點 " + scansAfter.get(3));
+
+        List<SleepAnomaly> rebuilt = newService().findAnomalies(null, null);
+        assertEquals(rebuilt, incremental);
+        assertTrue(incremental.stream().anyMatch(a -> a.getDate().startsWith("2025-06")),
+                "重新上傳的夜晚應被標記：" + incremental);
+    }
+
+    @Test
+    void testOnNightsWritten_doesNotWaitForRunningRecompute() throws Exception {
+        Random random = new Random(8);
+        for (int day = 0; day < 40; day++) {
+            put(day, random, 0);
+        }
+        SleepAnomalyService service = newService();
+        blockScan = new CountDownLatch(1);
+        CompletableFuture<List<SleepAnomaly>> query = CompletableFuture.supplyAsync(() -> service.findAnomalies(null, null));
+        assertTrue(scanning.await(5, TimeUnit.SECONDS));
+
+        // 匯入執行緒不必等查詢執行緒的重新計算，也不查資料庫
+        put(10, random, -30);
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> service.onNightsWritten(
+                new NightsWrittenEvent(List.of("n10"), List.of(START.plusDays(10)))));
+        assertEquals(1, scansAfter.size());
+
+        blockScan.countDown();
+        query.get(5, TimeUnit.SECONDS);
+        blockScan = null;
+        List<SleepAnomaly> afterUpload = service.findAnomalies(null, null);
+        assertEquals(2, scansAfter.size());
+        assertEquals(newService().findAnomalies(null, null), afterUpload);
+    }
+
+    private void put(int day, Random random, int scoreShift) {
+        LocalDate date = START.plusDays(day);
+        boolean outlier = day % 23 == 11;
+        db.put(date + "/n" + day, new Object[]{date, "n" + day,
+                (int) Math.round((outlier ? 40 : 78) + scoreShift + random.nextGaussian() * 4),
+                (int) Math.round((outlier ? 1500 : 5400) + random.nextGaussian() * 300),
+                (int) Math.round(15000 + random.nextGaussian() * 600),
+                (int) Math.round(6000 + random.nextGaussian() * 400),
+                14.0 + random.nextGaussian() * 0.3});
+    }
+
+    private static void written(SleepAnomalyService service, int fromDay, int toDay) {
+        List<String> ids = new ArrayList<>();
+        List<LocalDate> dates = new ArrayList<>();
+        for (int day = fromDay; day < toDay; day++) {
+            ids.add("n" + day);
+            dates.add(START.plusDays(day));
+        }
+        service.onNightsWritten(new NightsWrittenEvent(ids, dates));
+    }
+
+    private static ResultSet row(Object[] night) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getDate("date")).thenReturn(Date.valueOf((LocalDate) night[0]));
+        when(rs.getString("summary_id")).thenReturn((String) night[1]);
+        when(rs.getInt("overall_score")).thenReturn((Integer) night[2]);
+        when(rs.getInt("deep_sleep")).thenReturn((Integer) night[3]);
+        when(rs.getInt("light_sleep")).thenReturn((Integer) night[4]);
+        when(rs.getInt("rem_sleep")).thenReturn((Integer) night[5]);
+        when(rs.getDouble("respiration_mean")).thenReturn((Double) night[6]);
+        return rs;
+    }
+}
@@ -0,0 +1,102 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.dto.SleepAnomaly;
+import com.jeffery.garmin_sleep.service.P2Quantile;
+import com.jeffery.garmin_sleep.service.SleepBaseline;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SleepBaselineTest {
+
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+
+    @Test
+    void testP2Quantile_tracksExactQuantiles() {
+        Random random = new Random(42);
+        double[] samples = new double[5000];
+        P2Quantile p10 = new P2Quantile(0.1);
+        P2Quantile p50 = new P2Quantile(0.5);
+        P2Quantile p90 = new P2Quantile(0.9);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 70 + random.nextGaussian() * 8;
+            p10.add(samples[i]);
+            p50.add(samples[i]);
+            p90.add(samples[i]);
+        }
+        Arrays.sort(samples);
+
+        assertEquals(samples[500], p10.value(), 0.5);
+        assertEquals(samples[2500], p50.value(), 0.5);
+        assertEquals(samples[4500], p90.value(), 0.5);
+    }
+
+    @Test
+    void testP2Quantile_exactBeforeFiveSamples() {
+        P2Quantile median = new P2Quantile(0.5);
+        median.add(3);
+        median.add(1);
+        median.add(2);
+
+        assertEquals(2, median.value());
+        assertEquals(3, median.count());
+    }
+
+    @Test
+    void testAccept_flagsOutlierOnlyAfterWarmUp() {
+        SleepBaseline baseline = new SleepBaseline(0.1, 2.5, 14);
+        Random random = new Random(7);
+        // 前幾晚即使差異很大也不標記
+        assertNull(baseline.accept(night(0, 20, random)));
+        for (int i = 1; i < 30; i++) {
+            assertNull(baseline.accept(night(i, 80 + random.nextInt(3), random)), "night " + i);
+        }
+
+        SleepAnomaly anomaly = baseline.accept(night(30, 40, random));
+
+        assertNotNull(anomaly);
+        assertEquals(START.plusDays(30).toString(), anomaly.getDate());
+        SleepAnomaly.Deviation score = anomaly.getDeviations().stream()
+                .filter(d -> d.getMetric().equals("score")).findFirst().orElseThrow();
+        assertTrue(score.getSigmas() < -2.5, "z " + score.getSigmas());
+        assertEquals(30, score.getNights());
+        assertEquals(80, score.getP50(), 3);
+    }
+
+    @Test
+    void testCopy_isIndependentOfOriginal() {
+        SleepBaseline baseline = new SleepBaseline(0.1, 2.5, 3);
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            baseline.accept(night(i, 80, random));
+        }
+        SleepBaseline checkpoint = baseline.copy();
+
+        baseline.accept(night(10, 20, random));
+
+        assertEquals(10, checkpoint.stat(SleepBaseline.Metric.SCORE).getCount());
+        assertEquals(80, checkpoint.stat(SleepBaseline.Metric.SCORE).getEwma(), 1e-9);
+        assertEquals(11, baseline.stat(SleepBaseline.Metric.SCORE).getCount());
+        assertNotNull(checkpoint.accept(night(10, 20, random)));
+    }
+
+    @Test
+    void testAccept_skipsMissingMetrics() {
+        SleepBaseline baseline = new SleepBaseline(0.1, 2.5, 1);
+        baseline.accept(new SleepBaseline.Night(START, "x0", null, null, null, null, 14.0));
+
+        assertEquals(0, baseline.stat(SleepBaseline.Metric.SCORE).getCount());
+        assertEquals(0, baseline.stat(SleepBaseline.Metric.DEEP_RATIO).getCount());
+        assertEquals(1, baseline.stat(SleepBaseline.Metric.RESPIRATION).getCount());
+    }
+
+    // 階段比例與呼吸率維持穩定，只有分數依參數變化
+    private static SleepBaseline.Night night(int day, int score, Random random) {
+        return new SleepBaseline.Night(START.plusDays(day), "x" + day, score,
+                3600 + random.nextInt(60), 14400, 5400, 14.0 + random.nextDouble() * 0.2);
+    }
+}
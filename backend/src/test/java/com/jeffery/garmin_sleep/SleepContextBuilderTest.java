@@ -0,0 +1,111 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.model.Hypnogram;
+import com.jeffery.garmin_sleep.model.NightContext;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import com.jeffery.garmin_sleep.service.NightStatsCalculator;
+import com.jeffery.garmin_sleep.service.SleepContextBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SleepContextBuilderTest {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 6, 7);
+
+    @Test
+    void testRuns_mergesAdjacentSameStage() {
+        List<long[]> runs = SleepContextBuilder.runs(new Hypnogram(
+                new String[]{"light", "light", "deep", "rem"},
+                new long[]{0, 600, 1200, 3000},
+                new long[]{600, 1200, 3000, 3600}), 0);
+
+        assertEquals(3, runs.size());
+        assertArrayEquals(new long[]{'L', 1200}, runs.get(0));
+        assertArrayEquals(new long[]{'D', 1800}, runs.get(1));
+        assertArrayEquals(new long[]{'R', 600}, runs.get(2));
+    }
+
+    @Test
+    void testRuns_coarsenFoldsShortRunsIntoPrevious() {
+        // L20 W2 L15 D30：W2 併入前一段後兩段 L 合併
+        List<long[]> runs = SleepContextBuilder.runs(new Hypnogram(
+                new String[]{"light", "awake", "light", "deep"},
+                new long[]{0, 1200, 1320, 2220},
+                new long[]{1200, 1320, 2220, 4020}), 5);
+
+        assertEquals(2, runs.size());
+        assertArrayEquals(new long[]{'L', 2220}, runs.get(0));
+        assertArrayEquals(new long[]{'D', 1800}, runs.get(1));
+    }
+
+    @Test
+    void testBuildPrompt_includesAllNightsWithinBudget() {
+        List<NightContext> nights = nights(7, 40);
+
+        String prompt = SleepContextBuilder.buildPrompt("Why am I tired?", DATE, nights, 5000);
+
+        for (int i = 0; i < 7; i++) {
+            assertTrue(prompt.contains(DATE.minusDays(i) + (i == 0 ? "*" : "") + " score"), prompt);
+        }
+        assertTrue(prompt.contains("【Hypnograms】"));
+        // 統計行依日期由舊到新
+        assertTrue(prompt.indexOf(DATE.minusDays(6).toString()) < prompt.indexOf(DATE + "* score"));
+    }
+
+    @Test
+    void testBuildPrompt_trimsOlderNightsToFitBudget() {
+        List<NightContext> nights = nights(7, 120);
+
+        String prompt = SleepContextBuilder.buildPrompt("Why am I tired?", DATE, nights, 350);
+
+        assertTrue(SleepContextBuilder.estimateTokens(prompt) <= 350, "tokens " + SleepContextBuilder.estimateTokens(prompt));
+        assertTrue(prompt.contains(DATE + "* score"));
+        assertTrue(prompt.contains(DATE + "* from"), "target hypnogram is kept");
+        assertFalse(prompt.contains(DATE.minusDays(6) + " score"), "oldest night is dropped first");
+    }
+
+    @Test
+    void testBuildPrompt_missingTargetNight() {
+        String prompt = SleepContextBuilder.buildPrompt("q", DATE, nights(0, 10), 1200);
+
+        assertTrue(prompt.contains(DATE + "* no data"));
+    }
+
+    // 每晚交替 light / deep / rem / awake 片段，每段 1~6 分鐘
+    private static List<NightContext> nights(int count, int segments) {
+        List<NightContext> nights = new ArrayList<>();
+        String[] cycle = {"light", "deep", "light", "rem", "awake"};
+        for (int d = count - 1; d >= 0; d--) {
+            SleepSummary summary = new SleepSummary();
+            summary.setSummaryId("s" + d);
+            summary.setDate(DATE.minusDays(d));
+            summary.setOverallScore(70 + d);
+            summary.setScoreQualifier("FAIR");
+            summary.setTotalDuration(28800);
+            summary.setDeepSleep(5400);
+            summary.setLightSleep(16200);
+            summary.setRemSleep(6300);
+            summary.setAwakeSleep(900);
+
+            String[] types = new String[segments];
+            long[] starts = new long[segments];
+            long[] ends = new long[segments];
+            long t = 1_749_250_000L - d * 86_400L;
+            for (int i = 0; i < segments; i++) {
+                types[i] = cycle[i % cycle.length];
+                starts[i] = t;
+                t += 60L * (1 + (i * 7) % 6);
+                ends[i] = t;
+            }
+            nights.add(new NightContext(summary,
+                    NightStatsCalculator.compute(summary.getSummaryId(), types, starts, ends, new double[0]),
+                    types, starts, ends, null, "v" + d));
+        }
+        return nights;
+    }
+}
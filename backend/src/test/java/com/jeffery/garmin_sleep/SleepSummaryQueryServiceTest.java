@@ -0,0 +1,71 @@
+package com.jeffery.garmin_sleep;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.jeffery.garmin_sleep.repository.SleepSummaryRepository;
+import com.jeffery.garmin_sleep.service.SleepSummaryQueryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SleepSummaryQueryServiceTest {
+
+    @Test
+    void testStreamAll_eachLineIsExactlyOneJsonObject() throws Exception {
+        List<ResultSet> rows = List.of(
+                row("a", LocalDate.of(2025, 6, 1), 80, "GOOD"),
+                row("b", LocalDate.of(2025, 6, 2), null, null),
+                row("c", LocalDate.of(2025, 6, 3), 65, "FAIR"));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate() {
+            @Override
+            public void query(PreparedStatementCreator psc, RowCallbackHandler rch) {
+                for (ResultSet rs : rows) {
+                    try {
+                        rch.processRow(rs);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        };
+        SleepSummaryQueryService service = new SleepSummaryQueryService(mock(SleepSummaryRepository.class),
+                jdbcTemplate, mock(PlatformTransactionManager.class),
+                // 與 Spring Boot 自動設定的 ObjectMapper 相同，日期寫成 ISO 字串
+                Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build(),
+                100, 1000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.streamAll(out);
+
+        String expected = """
+                {"summaryId":"a","date":"2025-06-01","totalDuration":28800,"deepSleep":null,"lightSleep":null,"remSleep":null,"awakeSleep":null,"overallScore":80,"scoreQualifier":"GOOD"}
+                {"summaryId":"b","date":"2025-06-02","totalDuration":28800,"deepSleep":null,"lightSleep":null,"remSleep":null,"awakeSleep":null,"overallScore":null,"scoreQualifier":null}
+                {"summaryId":"c","date":"2025-06-03","totalDuration":28800,"deepSleep":null,"lightSleep":null,"remSleep":null,"awakeSleep":null,"overallScore":65,"scoreQualifier":"FAIR"}
+                """;
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static ResultSet row(String summaryId, LocalDate date, Integer score, String qualifier) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("summary_id")).thenReturn(summaryId);
+        when(rs.getDate("date")).thenReturn(Date.valueOf(date));
+        when(rs.getObject("total_duration", Integer.class)).thenReturn(28800);
+        when(rs.getObject("overall_score", Integer.class)).thenReturn(score);
+        when(rs.getString("score_qualifier")).thenReturn(qualifier);
+        return rs;
+    }
+}
@@ -0,0 +1,41 @@
+package com.jeffery.garmin_sleep;
+
+import com.jeffery.garmin_sleep.dto.UploadJobStatus;
+import com.jeffery.garmin_sleep.model.ParsedNight;
+import com.jeffery.garmin_sleep.model.SleepSummary;
+import com.jeffery.garmin_sleep.model.UploadJob;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadJobTest {
+
+    @Test
+    void testNightFailed_afterParseIsNotCountedAsParsed() {
+        UploadJob job = new UploadJob("j1", "nights.csv", "UPSERT");
+        job.nightParsed(0, night("a", 10));
+        job.nightParsed(1, night("b", 20));
+        job.nightFailed(2, "解析失敗：bad json");
+        // record 1 所在的 chunk 寫入失敗
+        job.nightFailed(1, "寫入失敗：deadlock");
+        job.nightWritten(0);
+
+        UploadJobStatus status = job.toStatus(true);
+        assertEquals(1, status.getNightsParsed());
+        assertEquals(2, status.getNightsFailed());
+        assertEquals(3, status.getNightsParsed() + status.getNightsFailed());
+        assertEquals(11, status.getRowsParsed());
+        assertEquals(11, status.getRowsWritten());
+        assertEquals("FAILED", status.getNights().get(1).getStatus());
+        assertEquals(21, status.getNights().get(1).getRowsParsed());
+    }
+
+    private static ParsedNight night(String summaryId, int stages) {
+        SleepSummary summary = new SleepSummary();
+        summary.setSummaryId(summaryId);
+        summary.setDate(LocalDate.of(2025, 6, 1));
+        return new ParsedNight(summary, new String[stages], new long[stages], new long[stages], new int[0], new double[0]);
+    }
+}
@@ -36,14 +36,47 @@ const ChatbotConversation: React.FC<ChatbotConversationProps> = ({ selectedDate
         setQuestion("");
         setLoading(true);
 
+        const header = `**[資料日期：${formatDate(selectedDate)}]**\n\n`;
+        // 先放一則空的回答，收到 SSE chunk 時逐段補上
+        const updateBot = (content: string) =>
+            setMessages((prev) => [...prev.slice(0, -1), { role: "bot", content }]);
+
         try {
-            const res = await fetch("/api/chatbot-query", {
+            const res = await fetch("/api/chatbot-query/stream", {
                 method: "POST",
-                headers: { "Content-Type": "application/json" },
+                headers: { "Content-Type": "application/json", Accept: "text/event-stream" },
                 body: JSON.stringify({ question, date: formatDate(selectedDate) }),
             });
-            const data = await res.json();
-            setMessages((prev) => [...prev, { role: "bot", content: `**[資料日期：${formatDate(selectedDate)}]**\n\n${data.answer}` }]);
+            if (!res.ok || !res.body) {
+                throw new Error(`status ${res.status}`);
+            }
+            setMessages((prev) => [...prev, { role: "bot", content: header }]);
+
+            const reader = res.body.getReader();
+            const decoder = new TextDecoder();
+            let buffer = "";
+            let answer = "";
+            for (;;) {
+                const { done, value } = await reader.read();
+                if (done) break;
+                buffer += decoder.decode(value, { stream: true });
+                // 事件之間以空行分隔
+                const events = buffer.split(/\r?\n\r?\n/);
+                buffer = events.pop() ?? "";
+                for (const raw of events) {
+                    const name = raw.match(/^event:(.*)$/m)?.[1].trim();
+                    const data = raw.split(/\r?\n/).filter((l) => l.startsWith("data:")).map((l) => l.slice(5)).join("\n");
+                    if (!name || !data) continue;
+                    const payload = JSON.parse(data);
+                    if (name === "chunk") {
+                        answer += payload.text;
+                        updateBot(header + answer);
+                    } else if (name === "error") {
+                        // status 503：後端同時呼叫 Gemini 的數量已達上限
+                        updateBot(payload.status === 503 ? "SleepBot 目前忙碌中，請稍後再試。" : payload.message);
+                    }
+                }
+            }
         } catch (err) {
             setMessages((prev) => [...prev, { role: "bot", content: "Error getting response." }]);
         } finally {
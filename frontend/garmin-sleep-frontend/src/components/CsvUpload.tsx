@@ -16,6 +16,22 @@ const CsvUpload = () => {
     }
   }
 
+  // 上傳後後端只回傳 job，輪詢到完成或失敗為止
+  const pollJob = async (jobId: string) => {
+    for (;;) {
+      const res = await fetch(`/api/upload-jobs/${jobId}?includeNights=false`)
+      const job = await res.json()
+      if (job.status === "COMPLETED" || job.status === "FAILED") {
+        return job
+      }
+      setUploadStatus({
+        success: true,
+        message: `Processing... ${job.nightsParsed} nights parsed, ${job.rowsWritten} rows written`,
+      })
+      await new Promise((resolve) => setTimeout(resolve, 1000))
+    }
+  }
+
   const handleUpload = async (e: React.FormEvent) => {
     e.preventDefault()
 
@@ -48,10 +64,14 @@ const CsvUpload = () => {
       })
 
       if (response.ok) {
-        const result = await response.text()
+        const job = await response.json()
+        const result = await pollJob(job.jobId)
         setUploadStatus({
-          success: true,
-          message: result || "File uploaded successfully",
+          success: result.status === "COMPLETED" && result.nightsFailed === 0,
+          message:
+            result.status === "FAILED"
+              ? `Upload failed: ${result.error}`
+              : `Uploaded ${result.nightsWritten} nights, ${result.nightsSkipped} unchanged, ${result.nightsFailed} failed (${result.rowsWritten} rows, ${Math.round(result.rowsPerSecond)} rows/s)`,
         })
       } else {
         const errorText = await response.text()
@@ -13,9 +13,11 @@ const DatePicker: React.FC<DatePickerProps> = ({ selectedDate, onChange }) => {
   const [availableDates, setAvailableDates] = useState<string[]>([]);
 
   useEffect(() => {
-    fetch("/api/sleep-summary")
-      .then((res) => res.json())
-      .then((data) => {
+    // 只需要日期清單，用 NDJSON 串流取回全部 summary，不必逐頁翻
+    fetch("/api/sleep-summary?format=ndjson")
+      .then((res) => res.text())
+      .then((text) => {
+        const data = text.split("\n").filter((line) => line.trim() !== "").map((line) => JSON.parse(line));
         const dates = data.map((d: any) => d.date).sort((a: string, b: string) => new Date(b).getTime() - new Date(a).getTime());
         setAvailableDates(dates);
 
@@ -30,21 +30,15 @@ const SleepStagePieChart = ({ date }: SleepStagePieChartProps) => {
     useEffect(() => {
         const fetchStageSummary = async () => {
             setLoading(true)
-            const res = await fetch(`/api/sleep-stages/${formatDate(date)}`)
-            const raw = await res.json()
+            // 每晚統計值在匯入時已算好，不必抓整晚的階段片段再自己加總
+            const res = await fetch(`/api/sleep-stats/${formatDate(date)}`)
+            const stats = res.ok ? await res.json() : null
 
             const summary: Record<string, number> = {
-                deep: 0,
-                light: 0,
-                rem: 0,
-                awake: 0,
-            }
-
-            for (const s of raw) {
-                if (s.stageType === "unmeasurable") continue
-                if (summary[s.stageType] !== undefined) {
-                    summary[s.stageType] += s.duration / 60 // 換算為分鐘
-                }
+                deep: (stats?.deepSeconds ?? 0) / 60, // 換算為分鐘
+                light: (stats?.lightSeconds ?? 0) / 60,
+                rem: (stats?.remSeconds ?? 0) / 60,
+                awake: (stats?.awakeSeconds ?? 0) / 60,
             }
 
             setRawDurations({